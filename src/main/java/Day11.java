@@ -48,12 +48,52 @@ public class Day11 {
             }
         }
 
+        public int getItemsInFlight() {
+            return items.size();
+        }
+
         @Override
         public String toString() {
             return "Monkey " + index + ": " + items;
         }
     }
 
+    private static class Metrics {
+        private final int samplingInterval;
+        private final List<int[]> inspectionSamples = new ArrayList<>();
+        private final List<int[]> inFlightSamples = new ArrayList<>();
+
+        public Metrics(int samplingInterval) {
+            if (samplingInterval <= 0) {
+                throw new IllegalArgumentException("samplingInterval must be positive");
+            }
+            this.samplingInterval = samplingInterval;
+        }
+
+        public boolean isSampleRound(int round) {
+            return (round + 1) % samplingInterval == 0;
+        }
+
+        public void sample(List<Monkey> monkeys) {
+            int[] inspections = new int[monkeys.size()];
+            int[] inFlight = new int[monkeys.size()];
+            for (int i = 0; i < monkeys.size(); i++) {
+                inspections[i] = monkeys.get(i).getItemsInspected();
+                inFlight[i] = monkeys.get(i).getItemsInFlight();
+            }
+            inspectionSamples.add(inspections);
+            inFlightSamples.add(inFlight);
+        }
+
+        public void print() {
+            for (int s = 0; s < inspectionSamples.size(); s++) {
+                System.out.println("Round " + ((s + 1) * samplingInterval)
+                        + ": inspected = " + Arrays.toString(inspectionSamples.get(s))
+                        + ", in flight = " + Arrays.toString(inFlightSamples.get(s)));
+            }
+        }
+    }
+
     private static final Pattern HEADER = Pattern.compile("\\s*Monkey (?<index>\\d+):");
     private static final Pattern STARTING = Pattern.compile("\\s*Starting items: (?<list>.*)");
     private static final Pattern OPERATION = Pattern.compile("\\s*Operation: new = old (?<operation>[*+]) (?<operand>\\d+|old)");
@@ -150,18 +190,30 @@ public class Day11 {
         long leastCommonMultiple = monkeys.stream().mapToLong(m -> m.divisibleBy).reduce(1, (l, r) -> l * r);
         LongUnaryOperator worryReduction = worryLevel -> worryLevel % leastCommonMultiple;
 
+        // Dumping every monkey each round makes the run I/O bound; enable with -Dday11.dump=true
+        boolean dumpRounds = Boolean.getBoolean("day11.dump");
+        Metrics metrics = new Metrics(Integer.getInteger("day11.sampleInterval", 1000));
+
         for (int round = 0; round < numberOfRounds; round++) {
             for (int i = 0; i < monkeys.size(); i++) {
                 monkeys.get(i).passItems(monkeys, worryReduction);
             }
 
-            System.out.println("Round " + round);
-            for (Monkey monkey : monkeys) {
-                System.out.println(monkey);
+            if (metrics.isSampleRound(round)) {
+                metrics.sample(monkeys);
+            }
+
+            if (dumpRounds) {
+                System.out.println("Round " + round);
+                for (Monkey monkey : monkeys) {
+                    System.out.println(monkey);
+                }
+                System.out.println();
             }
-            System.out.println();
         }
 
+        metrics.print();
+
         long monkeyBusiness = monkeys.stream()
                 .sorted(Comparator.comparing(Monkey::getItemsInspected).reversed())
                 .limit(2)
@@ -2,31 +2,20 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class Day12 {
-    private record Position(int x, int y) {
-        public Position left() {
-            return new Position(x - 1, y);
-        }
-
-        public Position right() {
-            return new Position(x + 1, y);
-        }
-
-        public Position up() {
-            return new Position(x, y - 1);
-        }
+    private static final int PARALLEL_THRESHOLD = 1 << 22;
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 12;
+    private static final int FRONTIER_BATCH_SIZE = 256;
 
-        public Position down() {
-            return new Position(x, y + 1);
-        }
-
-        public int manhattanDistance(Position position) {
-            return Math.abs(position.x() - x()) + Math.abs(position.y() - y());
-        }
+    record Position(int x, int y) {
     }
 
-    private static class Grid {
+    static class Grid {
         private final int[] grid;
         private final int width;
         private final int height;
@@ -46,10 +35,6 @@ public class Day12 {
             return height;
         }
 
-        public boolean isValidPosition(Position p) {
-            return p.x >= 0 && p.x < width && p.y >= 0 && p.y < height;
-        }
-
         public void set(Position p, int value) {
             grid[p.y * width + p.x] = value;
         }
@@ -90,17 +75,20 @@ public class Day12 {
             }
         }
 
-        int shortestPathFromStart = find(grid, start, end);
+        Grid distancesToEnd = grid.grid.length >= PARALLEL_THRESHOLD
+                ? parallelDistances(grid, end, true)
+                : reverseDistances(grid, end);
+
+        int shortestPathFromStart = distancesToEnd.get(start);
+        if (shortestPathFromStart == Integer.MAX_VALUE) {
+            shortestPathFromStart = -1;
+        }
 
         int shortestPathFromAnyA = Integer.MAX_VALUE;
         for (int y = 0; y < grid.height(); y++) {
             for (int x = 0; x < grid.width(); x++) {
-                int value = grid.get(x, y);
-                if (value == 0) {
-                    int length = find(grid, new Position(x, y), end);
-                    if (length != -1 && length < shortestPathFromAnyA) {
-                        shortestPathFromAnyA = length;
-                    }
+                if (grid.get(x, y) == 0) {
+                    shortestPathFromAnyA = Math.min(shortestPathFromAnyA, distancesToEnd.get(x, y));
                 }
             }
         }
@@ -109,48 +97,288 @@ public class Day12 {
         System.out.println("shortestPathFromAnyA = " + shortestPathFromAnyA);
     }
 
-    private static int find(Grid heightMap, Position start, Position end) {
-        Grid pathLengths = new Grid(heightMap.width(), heightMap.height(), Integer.MAX_VALUE);
+    private static class IntQueue {
+        private final int[] elements;
+        private int head = 0;
+        private int size = 0;
 
-        Queue<Position> candidates = new PriorityQueue<>(Comparator.comparingInt(p -> p.manhattanDistance(end) + pathLengths.get(p)));
-        candidates.add(start);
+        public IntQueue(int capacity) {
+            elements = new int[capacity];
+        }
 
-        pathLengths.set(start, 0);
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void add(int value) {
+            if (size == elements.length) {
+                throw new IllegalStateException("Queue full");
+            }
+            int tail = head + size;
+            elements[tail >= elements.length ? tail - elements.length : tail] = value;
+            size++;
+        }
+
+        public int remove() {
+            int value = elements[head];
+            head = head + 1 == elements.length ? 0 : head + 1;
+            size--;
+            return value;
+        }
+    }
+
+    /**
+     * Breadth-first search from end using the inverted climbing rule. The resulting grid holds the shortest path
+     * length from every position to end, or Integer.MAX_VALUE if end is not reachable from that position.
+     */
+    private static Grid reverseDistances(Grid heightMap, Position end) {
+        return distances(heightMap, end, true);
+    }
+
+    /**
+     * Breadth-first search over cell indices. Every cell is enqueued at most once so a queue with one slot per cell
+     * suffices and no Position records are allocated while searching.
+     */
+    static Grid distances(Grid heightMap, Position source, boolean reverse) {
+        int width = heightMap.width();
+        int[] offsets = neighbourOffsets(width);
+        int cellCount = heightMap.grid.length;
+        int[] heights = heightMap.grid;
+
+        Grid pathLengths = new Grid(width, heightMap.height(), Integer.MAX_VALUE);
+        int[] lengths = pathLengths.grid;
+
+        IntQueue candidates = new IntQueue(cellCount);
+        int sourceIndex = source.y() * width + source.x();
+        lengths[sourceIndex] = 0;
+        candidates.add(sourceIndex);
 
         while (!candidates.isEmpty()) {
-            Position p = candidates.remove();
-            if (p.equals(end)) {
-                return pathLengths.get(p);
+            int current = candidates.remove();
+            int x = current % width;
+            int currentHeight = heights[current];
+            int nextLength = lengths[current] + 1;
+
+            for (int i = 0; i < offsets.length; i++) {
+                int next = neighbour(current, x, i, offsets, width, cellCount);
+                if (next == -1 || lengths[next] != Integer.MAX_VALUE) {
+                    continue;
+                }
+                int climb = reverse ? currentHeight - heights[next] : heights[next] - currentHeight;
+                if (climb > 1) {
+                    continue;
+                }
+                lengths[next] = nextLength;
+                candidates.add(next);
+            }
+        }
+
+        return pathLengths;
+    }
+
+    /**
+     * Level-synchronous breadth-first search. Each frontier level is split into chunks that are expanded on the
+     * common fork-join pool; cells are claimed through a shared visited bitmap so every cell gets exactly one length.
+     * Every cell is claimed once, so each level fits in an array sized by the unclaimed cells that the chunks fill
+     * through a shared cursor.
+     */
+    static Grid parallelDistances(Grid heightMap, Position source, boolean reverse) {
+        Grid pathLengths = new Grid(heightMap.width(), heightMap.height(), Integer.MAX_VALUE);
+        AtomicLongArray visited = new AtomicLongArray((heightMap.grid.length + 63) >>> 6);
+
+        int sourceIndex = source.y() * heightMap.width() + source.x();
+        claim(visited, sourceIndex);
+        pathLengths.grid[sourceIndex] = 0;
+
+        int[] frontier = {sourceIndex};
+        int frontierSize = 1;
+        long unclaimed = heightMap.grid.length - 1L;
+        int length = 0;
+        while (frontierSize > 0) {
+            length++;
+            int[] next = new int[(int) Math.min(4L * frontierSize, unclaimed)];
+            AtomicInteger nextSize = new AtomicInteger();
+            ForkJoinPool.commonPool().invoke(
+                    new ExpandFrontier(heightMap, pathLengths, visited, reverse, frontier, 0, frontierSize, next, nextSize, length)
+            );
+            frontier = next;
+            frontierSize = nextSize.get();
+            unclaimed -= frontierSize;
+        }
+
+        return pathLengths;
+    }
+
+    private static boolean claim(AtomicLongArray visited, int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        long current;
+        do {
+            current = visited.get(word);
+            if ((current & bit) != 0) {
+                return false;
             }
+        } while (!visited.compareAndSet(word, current, current | bit));
+        return true;
+    }
+
+    private static class ExpandFrontier extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Grid heightMap;
+        private final Grid pathLengths;
+        private final AtomicLongArray visited;
+        private final boolean reverse;
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+        private final int[] next;
+        private final AtomicInteger nextSize;
+        private final int length;
 
-            addIfValidStep(heightMap, p, p.left(), candidates, pathLengths);
-            addIfValidStep(heightMap, p, p.right(), candidates, pathLengths);
-            addIfValidStep(heightMap, p, p.up(), candidates, pathLengths);
-            addIfValidStep(heightMap, p, p.down(), candidates, pathLengths);
+        ExpandFrontier(Grid heightMap, Grid pathLengths, AtomicLongArray visited, boolean reverse, int[] frontier, int from, int to, int[] next, AtomicInteger nextSize, int length) {
+            this.heightMap = heightMap;
+            this.pathLengths = pathLengths;
+            this.visited = visited;
+            this.reverse = reverse;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.next = next;
+            this.nextSize = nextSize;
+            this.length = length;
         }
 
-        return -1;
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_CHUNK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new ExpandFrontier(heightMap, pathLengths, visited, reverse, frontier, from, middle, next, nextSize, length),
+                        new ExpandFrontier(heightMap, pathLengths, visited, reverse, frontier, middle, to, next, nextSize, length)
+                );
+                return;
+            }
+
+            int width = heightMap.width();
+            int[] offsets = neighbourOffsets(width);
+            int[] heights = heightMap.grid;
+            // Claimed cells are handed to the shared array in batches to keep contention on the cursor low
+            int[] batch = new int[FRONTIER_BATCH_SIZE];
+            int batchSize = 0;
+            for (int f = from; f < to; f++) {
+                int current = frontier[f];
+                int x = current % width;
+                for (int i = 0; i < offsets.length; i++) {
+                    int neighbour = neighbour(current, x, i, offsets, width, heights.length);
+                    if (neighbour == -1) {
+                        continue;
+                    }
+                    int climb = reverse ? heights[current] - heights[neighbour] : heights[neighbour] - heights[current];
+                    if (climb > 1 || !claim(visited, neighbour)) {
+                        continue;
+                    }
+                    pathLengths.grid[neighbour] = length;
+                    if (batchSize == batch.length) {
+                        flush(batch, batchSize);
+                        batchSize = 0;
+                    }
+                    batch[batchSize++] = neighbour;
+                }
+            }
+            flush(batch, batchSize);
+        }
+
+        private void flush(int[] batch, int batchSize) {
+            if (batchSize > 0) {
+                System.arraycopy(batch, 0, next, nextSize.getAndAdd(batchSize), batchSize);
+            }
+        }
+    }
+
+    /**
+     * Step offsets to the left, right, upper and lower neighbour of a cell.
+     */
+    private static int[] neighbourOffsets(int width) {
+        return new int[]{-1, 1, -width, width};
     }
 
-    private static void addIfValidStep(Grid heightMap, Position current, Position next, Collection<Position> candidates, Grid pathLengths) {
-        if (!heightMap.isValidPosition(next)) {
-            return;
+    /**
+     * Neighbour of index in direction i, or -1 if the step leaves the grid. x is the column of index, which callers
+     * compute once per cell rather than once per direction.
+     */
+    private static int neighbour(int index, int x, int i, int[] offsets, int width, int cellCount) {
+        if ((i == 0 && x == 0) || (i == 1 && x == width - 1)) {
+            return -1;
         }
+        int next = index + offsets[i];
+        return next < 0 || next >= cellCount ? -1 : next;
+    }
+
+    /**
+     * Bidirectional breadth-first search. The smaller of the two frontiers is expanded one full level at a time,
+     * forward from start and in reverse from end, until the searches meet.
+     */
+    static int find(Grid heightMap, Position start, Position end) {
+        int width = heightMap.width();
+        int[] offsets = neighbourOffsets(width);
+        int[] heights = heightMap.grid;
+        int cellCount = heights.length;
 
-        int currentLength = pathLengths.get(current);
-        int nextLength = currentLength + 1;
-        int existingLength = pathLengths.get(next);
-        if (existingLength <= nextLength) {
-            return;
+        int startIndex = start.y() * width + start.x();
+        int endIndex = end.y() * width + end.x();
+        if (startIndex == endIndex) {
+            return 0;
         }
 
-        int currentHeight = heightMap.get(current);
-        int nextHeight = heightMap.get(next);
-        if (nextHeight - currentHeight > 1) {
-            return;
+        int[] forwardLengths = new int[cellCount];
+        int[] reverseLengths = new int[cellCount];
+        Arrays.fill(forwardLengths, -1);
+        Arrays.fill(reverseLengths, -1);
+        forwardLengths[startIndex] = 0;
+        reverseLengths[endIndex] = 0;
+
+        IntQueue forward = new IntQueue(cellCount);
+        IntQueue reverse = new IntQueue(cellCount);
+        forward.add(startIndex);
+        reverse.add(endIndex);
+
+        while (!forward.isEmpty() && !reverse.isEmpty()) {
+            boolean expandForward = forward.size() <= reverse.size();
+            IntQueue queue = expandForward ? forward : reverse;
+            int[] lengths = expandForward ? forwardLengths : reverseLengths;
+            int[] otherLengths = expandForward ? reverseLengths : forwardLengths;
+
+            int best = Integer.MAX_VALUE;
+            for (int levelSize = queue.size(); levelSize > 0; levelSize--) {
+                int current = queue.remove();
+                int x = current % width;
+                for (int i = 0; i < offsets.length; i++) {
+                    int next = neighbour(current, x, i, offsets, width, cellCount);
+                    if (next == -1 || lengths[next] != -1) {
+                        continue;
+                    }
+                    int climb = expandForward ? heights[next] - heights[current] : heights[current] - heights[next];
+                    if (climb > 1) {
+                        continue;
+                    }
+                    lengths[next] = lengths[current] + 1;
+                    if (otherLengths[next] != -1) {
+                        best = Math.min(best, lengths[next] + otherLengths[next]);
+                    }
+                    queue.add(next);
+                }
+            }
+
+            if (best != Integer.MAX_VALUE) {
+                return best;
+            }
         }
 
-        pathLengths.set(next, nextLength);
-        candidates.add(next);
+        return -1;
     }
 }
@@ -1,37 +1,35 @@
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 public class Day13 {
-    public static void main(String[] args) throws IOException {
-        Object divider1 = List.of(List.of(2));
-        Object divider2 = List.of(List.of(6));
+    private static final int OPEN = 0;
+    private static final int CLOSE = 1;
+    private static final int COMMA = 2;
+    private static final int NUMBER = 3;
+
+    private static final byte[] DIVIDER_1 = "[[2]]".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DIVIDER_2 = "[[6]]".getBytes(StandardCharsets.US_ASCII);
 
-        List<Object> packets = new ArrayList<>();
-        packets.add(divider1);
-        packets.add(divider2);
+    public static void main(String[] args) throws IOException {
+        List<byte[]> packets = new ArrayList<>();
 
         int index = 1;
         int sum = 0;
 
         try (var r = Files.newBufferedReader(Paths.get("day13_input.txt"))) {
             do {
-                Object packet1 = parse(r.readLine());
-                Object packet2 = parse(r.readLine());
+                byte[] packet1 = r.readLine().getBytes(StandardCharsets.US_ASCII);
+                byte[] packet2 = r.readLine().getBytes(StandardCharsets.US_ASCII);
 
                 packets.add(packet1);
                 packets.add(packet2);
 
-                int result = compare(packet1, packet2);
-
-                System.out.println(packet1);
-                System.out.println(packet2);
-                System.out.println("--> " + result);
+                int result = compareRaw(packet1, packet2);
                 if (result < 0) {
                     sum += index;
                 }
@@ -40,99 +38,213 @@ public class Day13 {
         }
 
         System.out.println("sum = " + sum);
-
-        packets.sort(Day13::compare);
-        int indexDivider1 = packets.indexOf(divider1);
-        int indexDivider2 = packets.indexOf(divider2);
-        System.out.println("decoder key = " + ((indexDivider1 + 1) * (indexDivider2 + 1)));
-    }
-
-    private static int compare(Object o1, Object o2) {
-        if (o1 instanceof List<?>) {
-            if (o2 instanceof List<?>) {
-                return compare((List<?>) o1, (List<?>) o2);
-            } else {
-                return compare((List<?>) o1, List.of((Integer) o2));
-            }
-        } else if (o2 instanceof List<?>) {
-            return compare(List.of((Integer) o1), (List<?>) o2);
-        } else {
-            return compare((Integer) o1, (Integer) o2);
-        }
+        System.out.println("decoder key = " + decoderKey(packets));
     }
 
-    private static int compare(Integer i1, Integer i2) {
-        return i1.compareTo(i2);
+    /**
+     * Computes the decoder key from the ranks of the dividers in the sorted packet list without sorting: the rank of
+     * a divider is the number of packets that compare below it.
+     */
+    static long decoderKey(List<byte[]> packets) {
+        // Low half counts packets below divider 1, high half those below divider 2
+        long counts = packets.parallelStream()
+                .mapToLong(p -> compareRaw(p, DIVIDER_1) < 0 ? (1L << 32) | 1 : compareRaw(p, DIVIDER_2) < 0 ? 1L << 32 : 0)
+                .sum();
+
+        long belowDivider1 = counts & 0xFFFFFFFFL;
+        long belowDivider2 = counts >>> 32;
+
+        // Divider 1 itself also sorts before divider 2
+        return (belowDivider1 + 1) * (belowDivider2 + 2);
     }
 
-    private static int compare(List<?> l1, List<?> l2) {
-        Iterator<?> i1 = l1.iterator();
-        Iterator<?> i2 = l2.iterator();
-        while(i1.hasNext() && i2.hasNext()) {
-            int result = compare(i1.next(), i2.next());
-            if (result != 0) {
-                return result;
+    /**
+     * Compares two packets directly on their textual encoding without building a tree. When a number meets a list,
+     * the number is wrapped in a virtual singleton list by counting the closing brackets still owed after it.
+     */
+    static int compareRaw(byte[] p1, byte[] p2) {
+        int i1 = 0;
+        int i2 = 0;
+        int pendingClose1 = 0;
+        int pendingClose2 = 0;
+
+        while (i1 < p1.length && i2 < p2.length) {
+            int t1 = pendingClose1 > 0 && !isDigit(p1[i1]) ? CLOSE : tokenType(p1[i1]);
+            int t2 = pendingClose2 > 0 && !isDigit(p2[i2]) ? CLOSE : tokenType(p2[i2]);
+
+            if (t1 == NUMBER && t2 == NUMBER) {
+                int v1 = 0;
+                while (i1 < p1.length && isDigit(p1[i1])) {
+                    v1 = v1 * 10 + (p1[i1++] - '0');
+                }
+                int v2 = 0;
+                while (i2 < p2.length && isDigit(p2[i2])) {
+                    v2 = v2 * 10 + (p2[i2++] - '0');
+                }
+                if (v1 != v2) {
+                    return Integer.compare(v1, v2);
+                }
+            } else if (t1 == t2) {
+                if (t1 == CLOSE && pendingClose1 > 0 && !isDigit(p1[i1])) {
+                    pendingClose1--;
+                } else {
+                    i1++;
+                }
+                if (t2 == CLOSE && pendingClose2 > 0 && !isDigit(p2[i2])) {
+                    pendingClose2--;
+                } else {
+                    i2++;
+                }
+            } else if (t1 == NUMBER && t2 == OPEN) {
+                pendingClose1++;
+                i2++;
+            } else if (t1 == OPEN && t2 == NUMBER) {
+                pendingClose2++;
+                i1++;
+            } else if (t1 == CLOSE) {
+                return -1;
+            } else if (t2 == CLOSE) {
+                return 1;
+            } else {
+                throw new IllegalArgumentException("Malformed packet");
             }
         }
 
-        if (i1.hasNext()) {
+        if (i1 < p1.length) {
             return 1;
-        } else if (i2.hasNext()) {
+        } else if (i2 < p2.length) {
             return -1;
         } else {
             return 0;
         }
     }
 
-    private static Object parse(String line) throws IOException {
-        return parseValue(new PushbackReader(new StringReader(line)));
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
     }
 
-    private static Object parseValue(PushbackReader r) throws IOException {
-        int c = r.read();
-        if (c == '[') {
-            r.unread(c);
-            return parseList(r);
-        } else if (Character.isDigit(c)) {
-            r.unread(c);
-            return parseInteger(r);
-        } else {
-            throw new IOException("Unexpected character: " + (char)c);
-        }
-    }
-
-    private static Object parseInteger(PushbackReader r) throws IOException {
-        StringBuilder b = new StringBuilder();
-        int c;
-        while((c = r.read()) != -1 && Character.isDigit(c)) {
-            b.append((char)c);
-        }
-        r.unread(c);
-        return Integer.parseInt(b, 0, b.length(), 10);
+    private static int tokenType(byte b) {
+        return switch (b) {
+            case '[' -> OPEN;
+            case ']' -> CLOSE;
+            case ',' -> COMMA;
+            default -> {
+                if (!isDigit(b)) {
+                    throw new IllegalArgumentException("Unexpected character: " + (char) b);
+                }
+                yield NUMBER;
+            }
+        };
     }
 
-    private static Object parseList(PushbackReader r) throws IOException {
-        int c = r.read();
-        if (c != '[') {
-            throw new IOException("Unexpected character: " + (char)c);
-        }
+    /**
+     * Packet flattened to a token stream of numbers and list markers. The key captures the first number or list end
+     * encountered after skipping opening brackets, which is where most comparisons are decided.
+     */
+    record Packet(long key, int[] tokens) {
+        private static final int LIST_OPEN = -1;
+        private static final int LIST_CLOSE = -2;
+
+        private static final long CLOSE_KEY = 0;
+        private static final long NUMBER_KEY = 1L << 32;
+
+        public static Packet encode(byte[] packet) {
+            int[] tokens = new int[packet.length];
+            int size = 0;
+            for (int i = 0; i < packet.length; i++) {
+                switch (tokenType(packet[i])) {
+                    case OPEN -> tokens[size++] = LIST_OPEN;
+                    case CLOSE -> tokens[size++] = LIST_CLOSE;
+                    case NUMBER -> {
+                        int value = 0;
+                        while (i < packet.length && isDigit(packet[i])) {
+                            value = value * 10 + (packet[i++] - '0');
+                        }
+                        i--;
+                        tokens[size++] = value;
+                    }
+                }
+            }
+            tokens = Arrays.copyOf(tokens, size);
 
-        List<Object> list = new ArrayList<>();
+            // A list ending at a shallower depth sorts first; numbers compare regardless of depth
+            int depth = 0;
+            while (depth < tokens.length && tokens[depth] == LIST_OPEN) {
+                depth++;
+            }
+            long key = tokens[depth] == LIST_CLOSE ? CLOSE_KEY + depth : NUMBER_KEY + tokens[depth];
 
-        c = r.read();
+            return new Packet(key, tokens);
+        }
 
-        if (c != ']') {
-            r.unread(c);
-            do {
-                list.add(parseValue(r));
-                c = r.read();
-            } while (c == ',');
+        public static int compare(Packet packet1, Packet packet2) {
+            int result = Long.compare(packet1.key, packet2.key);
+            if (result != 0) {
+                return result;
+            }
+            return compareTokens(packet1.tokens, packet2.tokens);
         }
 
-        if (c != ']') {
-            throw new IOException("Unexpected character: " + (char)c);
+        private static int compareTokens(int[] t1, int[] t2) {
+            int i1 = 0;
+            int i2 = 0;
+            // Closing brackets owed by a number wrapped in virtual lists, due once the number itself is consumed
+            int pendingClose1 = 0;
+            int pendingClose2 = 0;
+            boolean wrappedConsumed1 = false;
+            boolean wrappedConsumed2 = false;
+
+            while (i1 < t1.length && i2 < t2.length) {
+                boolean virtualClose1 = pendingClose1 > 0 && wrappedConsumed1;
+                boolean virtualClose2 = pendingClose2 > 0 && wrappedConsumed2;
+                int token1 = virtualClose1 ? LIST_CLOSE : t1[i1];
+                int token2 = virtualClose2 ? LIST_CLOSE : t2[i2];
+
+                if (token1 >= 0 && token2 >= 0) {
+                    if (token1 != token2) {
+                        return Integer.compare(token1, token2);
+                    }
+                    i1++;
+                    i2++;
+                    wrappedConsumed1 = pendingClose1 > 0;
+                    wrappedConsumed2 = pendingClose2 > 0;
+                } else if (token1 == token2) {
+                    if (virtualClose1) {
+                        wrappedConsumed1 = --pendingClose1 > 0;
+                    } else {
+                        i1++;
+                    }
+                    if (virtualClose2) {
+                        wrappedConsumed2 = --pendingClose2 > 0;
+                    } else {
+                        i2++;
+                    }
+                } else if (token1 >= 0 && token2 == LIST_OPEN) {
+                    pendingClose1++;
+                    i2++;
+                } else if (token1 == LIST_OPEN && token2 >= 0) {
+                    pendingClose2++;
+                    i1++;
+                } else if (token1 == LIST_CLOSE) {
+                    return -1;
+                } else {
+                    return 1;
+                }
+            }
+
+            if (i1 < t1.length) {
+                return 1;
+            } else if (i2 < t2.length) {
+                return -1;
+            } else {
+                return 0;
+            }
         }
+    }
 
-        return list;
+    static Packet[] sort(List<byte[]> packets) {
+        Packet[] encoded = packets.parallelStream().map(Packet::encode).toArray(Packet[]::new);
+        Arrays.parallelSort(encoded, Packet::compare);
+        return encoded;
     }
 }
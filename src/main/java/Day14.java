@@ -28,51 +28,123 @@ public class Day14 {
         int minX = rockPaths.stream().flatMap(Collection::stream).mapToInt(p -> p.x).min().orElse(0);
         int maxX = rockPaths.stream().flatMap(Collection::stream).mapToInt(p -> p.x).max().orElse(0);
         int maxY = rockPaths.stream().flatMap(Collection::stream).mapToInt(p -> p.y).max().orElse(0);
+        long floorFilledGrainCount = countFloorFilledSand(rockPaths, 500, maxY + 2);
+
         minX -= maxY * 2;
         maxX += maxY * 2;
         rockPaths.add(List.of(new Point(0, maxY + 2), new Point(maxX, maxY + 2)));
         maxY += 2;
 
-        BufferedImage i = new BufferedImage(maxX - minX, maxY + 1, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = i.createGraphics();
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, i.getWidth(), i.getHeight());
+        Cave cave = new Cave(maxX - minX, maxY + 1);
+        for (List<Point> rockPath : rockPaths) {
+            for (int j = 1; j < rockPath.size(); j++) {
+                Point p1 = rockPath.get(j - 1);
+                Point p2 = rockPath.get(j);
+                cave.fillLine(p1.x - minX, p1.y, p2.x - minX, p2.y);
+            }
+        }
+
+        SandSimulation simulation = new SandSimulation(cave, 500 - minX, 0);
+
+        // The simulation runs headless; enable the animated view with -Dday14.view=true
+        if (Boolean.getBoolean("day14.view")) {
+            simulation.setObserver(createView(cave, Integer.getInteger("day14.frameInterval", 100)));
+        }
+
+        System.out.println("grainCount = " + simulation.run());
+        System.out.println("floorFilledGrainCount = " + floorFilledGrainCount);
+    }
 
-        g.setColor(Color.BLACK);
+    /**
+     * Counts the sand that comes to rest when the cave has an infinite floor at floorY without simulating grains.
+     * With a floor every cell reachable from the entry point through falling moves eventually fills, so the
+     * reachable cells of a row are the cells below, left-below and right-below the reachable cells of the row above
+     * that are not rock.
+     */
+    private static long countFloorFilledSand(List<List<Point>> rockPaths, int entryX, int floorY) {
+        // Sand can spread at most one column per row, so floorY columns either side of the entry suffice
+        int offsetX = entryX - floorY;
+        int width = 2 * floorY + 1;
+        int words = (width + 63) >>> 6;
+
+        long[][] rockRows = new long[floorY][];
         for (List<Point> rockPath : rockPaths) {
             for (int j = 1; j < rockPath.size(); j++) {
                 Point p1 = rockPath.get(j - 1);
                 Point p2 = rockPath.get(j);
-                g.drawLine(p1.x - minX, p1.y, p2.x - minX, p2.y);
+                for (int y = Math.min(p1.y, p2.y); y <= Math.max(p1.y, p2.y) && y < floorY; y++) {
+                    for (int x = Math.min(p1.x, p2.x); x <= Math.max(p1.x, p2.x); x++) {
+                        int column = x - offsetX;
+                        if (column < 0 || column >= width) {
+                            continue;
+                        }
+                        if (rockRows[y] == null) {
+                            rockRows[y] = new long[words];
+                        }
+                        rockRows[y][column >>> 6] |= 1L << column;
+                    }
+                }
+            }
+        }
+
+        long[] reachable = new long[words];
+        long[] next = new long[words];
+        int entryColumn = entryX - offsetX;
+        if (rockRows[0] != null && (rockRows[0][entryColumn >>> 6] & (1L << entryColumn)) != 0) {
+            return 0;
+        }
+        reachable[entryColumn >>> 6] = 1L << entryColumn;
+
+        long count = 1;
+        for (int y = 1; y < floorY; y++) {
+            long[] rock = rockRows[y];
+            for (int w = 0; w < words; w++) {
+                long spread = reachable[w] | (reachable[w] << 1) | (reachable[w] >>> 1);
+                if (w > 0) {
+                    spread |= reachable[w - 1] >>> 63;
+                }
+                if (w < words - 1) {
+                    spread |= reachable[w + 1] << 63;
+                }
+                next[w] = rock == null ? spread : spread & ~rock[w];
+                count += Long.bitCount(next[w]);
+            }
+
+            long[] swap = reachable;
+            reachable = next;
+            next = swap;
+        }
+
+        return count;
+    }
+
+    private static SandObserver createView(Cave cave, int frameInterval) {
+        BufferedImage i = new BufferedImage(cave.width(), cave.height(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < cave.height(); y++) {
+            for (int x = 0; x < cave.width(); x++) {
+                i.setRGB(x, y, cave.isFree(x, y) ? Color.WHITE.getRGB() : Color.BLACK.getRGB());
             }
         }
-        g.dispose();
 
         ImageComponent imageComponent = new ImageComponent(i, 4);
 
-        JFrame f = new JFrame();
-        f.getContentPane().setLayout(new BorderLayout());
-        f.getContentPane().add(imageComponent, BorderLayout.CENTER);
-        f.pack();
-        f.setLocationRelativeTo(null);
-        f.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-        f.setVisible(true);
-
-        SimulateSand simulation = new SimulateSand(i, new Point(500 - minX, 0));
-        int timerDelay = 10;
-        Timer t = new Timer(timerDelay, e -> {
-            if (simulation.tick()) {
-                imageComponent.invalidate();
+        SwingUtilities.invokeLater(() -> {
+            JFrame f = new JFrame();
+            f.getContentPane().setLayout(new BorderLayout());
+            f.getContentPane().add(imageComponent, BorderLayout.CENTER);
+            f.pack();
+            f.setLocationRelativeTo(null);
+            f.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+            f.setVisible(true);
+        });
+
+        int sandColor = Color.ORANGE.getRGB();
+        return (x, y, grainCount) -> {
+            i.setRGB(x, y, sandColor);
+            if (grainCount % frameInterval == 0) {
                 imageComponent.repaint();
-            } else {
-                ((Timer) e.getSource()).stop();
-                System.out.println("grainCount = " + simulation.grainCount);
             }
-        });
-        t.setInitialDelay(timerDelay);
-        t.setRepeats(true);
-        t.setCoalesce(false);
-        t.start();
+        };
     }
 
     private static class ImageComponent extends JComponent {
@@ -90,73 +162,150 @@ public class Day14 {
         }
     }
 
-    private static class SimulateSand {
+    /**
+     * Cave contents as a packed bitset, one bit per cell. A set bit is rock or settled sand.
+     */
+    private static class Cave {
+        private final long[] cells;
+        private final int width;
+        private final int height;
 
-        private final BufferedImage grid;
-        private final Graphics2D g;
-        private final Point entryPoint;
-        private final Color sandColor;
-        private final Color airColor;
+        public Cave(int width, int height) {
+            this.cells = new long[(int) (((long) width * height + 63) >>> 6)];
+            this.width = width;
+            this.height = height;
+        }
 
-        private int grainCount;
-        private Point currentGrain;
+        public int width() {
+            return width;
+        }
 
-        public SimulateSand(BufferedImage grid, Point entryPoint) {
-            this.grid = grid;
-            g = grid.createGraphics();
-            this.entryPoint = entryPoint;
-            sandColor = Color.ORANGE;
-            airColor = Color.WHITE;
+        public int height() {
+            return height;
         }
 
-        public boolean tick() {
-            do {
-                if (!innerTick()) {
-                    return false;
+        public boolean isInside(int x, int y) {
+            return x >= 0 && x < width && y >= 0 && y < height;
+        }
+
+        public boolean isFree(int x, int y) {
+            int index = y * width + x;
+            return (cells[index >>> 6] & (1L << index)) == 0;
+        }
+
+        public void fill(int x, int y) {
+            int index = y * width + x;
+            cells[index >>> 6] |= 1L << index;
+        }
+
+        public void fillLine(int x1, int y1, int x2, int y2) {
+            int dx = Integer.signum(x2 - x1);
+            int dy = Integer.signum(y2 - y1);
+            int x = x1;
+            int y = y1;
+            while (true) {
+                if (isInside(x, y)) {
+                    fill(x, y);
+                }
+                if (x == x2 && y == y2) {
+                    break;
                 }
-            } while (currentGrain != null);
+                x += dx;
+                y += dy;
+            }
+        }
+    }
 
-            return true;
+    private interface SandObserver {
+        void grainSettled(int x, int y, int grainCount);
+    }
+
+    /**
+     * Sand simulation that remembers the fall path of the previous grain. The next grain follows exactly the same path
+     * up to the cell just above where the previous one settled, so it resumes from there instead of the entry point.
+     */
+    private static class SandSimulation {
+        private final Cave cave;
+        private final int entryX;
+        private final int entryY;
+
+        private SandObserver observer;
+        private int grainCount;
+
+        private int[] pathX = new int[64];
+        private int[] pathY = new int[64];
+        private int pathLength = 0;
+
+        public SandSimulation(Cave cave, int entryX, int entryY) {
+            this.cave = cave;
+            this.entryX = entryX;
+            this.entryY = entryY;
         }
 
-        public boolean innerTick() {
-            if (currentGrain == null) {
-                currentGrain = new Point(entryPoint);
-                if (grid.getRGB(currentGrain.x, currentGrain.y) == airColor.getRGB()) {
-                    g.setColor(sandColor);
-                    g.fillRect(currentGrain.x, currentGrain.y, 1, 1);
-                    return true;
-                } else {
+        public void setObserver(SandObserver observer) {
+            this.observer = observer;
+        }
+
+        /**
+         * Drops grains until the entry point is blocked or a grain leaves the cave.
+         */
+        public int run() {
+            while (dropGrain()) {
+                grainCount++;
+            }
+            return grainCount;
+        }
+
+        private boolean dropGrain() {
+            if (pathLength == 0) {
+                if (!cave.isFree(entryX, entryY)) {
                     return false;
                 }
-            } else {
-                Point next = null;
-                try {
-                    if (grid.getRGB(currentGrain.x, currentGrain.y + 1) == airColor.getRGB()) {
-                        next = new Point(currentGrain.x, currentGrain.y + 1);
-                    } else if (grid.getRGB(currentGrain.x - 1, currentGrain.y + 1) == airColor.getRGB()) {
-                        next = new Point(currentGrain.x - 1, currentGrain.y + 1);
-                    } else if (grid.getRGB(currentGrain.x + 1, currentGrain.y + 1) == airColor.getRGB()) {
-                        next = new Point(currentGrain.x + 1, currentGrain.y + 1);
-                    }
-                } catch (ArrayIndexOutOfBoundsException e) {
+                push(entryX, entryY);
+            }
+
+            int x = pathX[pathLength - 1];
+            int y = pathY[pathLength - 1];
+            while (true) {
+                int nextY = y + 1;
+                if (nextY >= cave.height()) {
                     return false;
                 }
 
-                if (next != null) {
-                    g.setColor(airColor);
-                    g.fillRect(currentGrain.x, currentGrain.y, 1, 1);
-
-                    g.setColor(sandColor);
-                    g.fillRect(next.x, next.y, 1, 1);
-                    currentGrain = next;
-                    return true;
+                if (cave.isFree(x, nextY)) {
+                    y = nextY;
+                } else if (x == 0) {
+                    return false;
+                } else if (cave.isFree(x - 1, nextY)) {
+                    x--;
+                    y = nextY;
+                } else if (x == cave.width() - 1) {
+                    return false;
+                } else if (cave.isFree(x + 1, nextY)) {
+                    x++;
+                    y = nextY;
                 } else {
-                    grainCount++;
-                    currentGrain = null;
+                    break;
                 }
-                return true;
+                push(x, y);
+            }
+
+            cave.fill(x, y);
+            pathLength--;
+            if (observer != null) {
+                observer.grainSettled(x, y, grainCount + 1);
+            }
+            return true;
+        }
+
+        private void push(int x, int y) {
+            if (pathLength == pathX.length) {
+                pathX = Arrays.copyOf(pathX, pathLength * 2);
+                pathY = Arrays.copyOf(pathY, pathLength * 2);
             }
+            pathX[pathLength] = x;
+            pathY[pathLength] = y;
+            pathLength++;
         }
     }
 }
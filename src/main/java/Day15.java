@@ -1,10 +1,14 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Day15 {
     public static void main(String[] args) throws IOException {
@@ -15,50 +19,206 @@ public class Day15 {
                 .toList();
 
         int row = 2000000;
-        int minX = entries.stream().mapToInt(Entry::minX).min().orElse(0);
-        int maxX = entries.stream().mapToInt(Entry::maxX).max().orElse(0);
-        int locationCount = 0;
-        for (int x = minX; x <= maxX; x++) {
-            Point location = new Point(x, row);
-            if (entries.stream().anyMatch(e -> e.withinSensorReach(location) && !e.closestBeacon().location().equals(location))) {
-                locationCount++;
+        long locationCount = rowCoverage(entries, row);
+        System.out.println("locationCount = " + locationCount);
+
+        Point distressBeacon = findDistressBeacon(entries, 4000000);
+        if (distressBeacon != null) {
+            System.out.println("x = " + distressBeacon.x());
+            System.out.println("y = " + distressBeacon.y());
+            long frequency = 4000000L * distressBeacon.x() + distressBeacon.y();
+            System.out.println("frequency = " + frequency);
+        }
+
+        long uncoveredCount = uncoveredRuns(entries, 0, 0, 4000000, 4000000, 10000)
+                .mapToLong(run -> (long) run.endX() - run.startX() + 1)
+                .sum();
+        System.out.println("uncoveredCount = " + uncoveredCount);
+    }
+
+    /**
+     * Finds a position in the square [0, size] x [0, size] that is not within reach of any sensor. If there is exactly
+     * one such position, one of its neighbours is within reach of some sensor, so it lies just outside that sensor's
+     * diamond, on one of the lines at distance radius + 1. Those lines come in an ascending (y - x constant) and a
+     * descending (y + x constant) family. Usually the position is an intersection of lines from both families, so
+     * those are tried first. It need not be when it lies on an edge of the square or between two diamonds touching
+     * along the same line, so otherwise every line is walked across the square.
+     */
+    static Point findDistressBeacon(List<Entry> entries, int size) {
+        long[] ascending = new long[entries.size() * 2];
+        long[] descending = new long[entries.size() * 2];
+        for (int i = 0; i < entries.size(); i++) {
+            Point sensor = entries.get(i).sensor().location();
+            long distance = entries.get(i).radius() + 1L;
+            ascending[2 * i] = (long) sensor.y() - sensor.x() - distance;
+            ascending[2 * i + 1] = (long) sensor.y() - sensor.x() + distance;
+            descending[2 * i] = (long) sensor.y() + sensor.x() - distance;
+            descending[2 * i + 1] = (long) sensor.y() + sensor.x() + distance;
+        }
+
+        for (long a : ascending) {
+            for (long d : descending) {
+                if (((d - a) & 1) != 0) {
+                    continue;
+                }
+                Point candidate = candidate((d - a) / 2, (d + a) / 2, size, entries);
+                if (candidate != null) {
+                    return candidate;
+                }
             }
         }
-        System.out.println("locationCount = " + locationCount);
 
-        for (int y = 0; y <= 4000000; y++) {
-            for (int x = 0; x <= 4000000; x++) {
-                Entry overlappingEntry = null;
+        for (long a : ascending) {
+            Point candidate = uncoveredOnLine(a, 1, size, entries);
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        for (long d : descending) {
+            Point candidate = uncoveredOnLine(d, -1, size, entries);
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * First position on the line y = slope * x + c inside the square that no sensor reaches. Along the line the
+     * distance to a sensor is |x - u| + |x - v| for some u and v, so each sensor covers one interval of x and the
+     * intervals can be swept like those of a row.
+     */
+    private static Point uncoveredOnLine(long c, int slope, int size, List<Entry> entries) {
+        long from = Math.max(0, slope == 1 ? -c : c - size);
+        long to = Math.min(size, slope == 1 ? size - c : c);
+
+        List<long[]> intervals = new ArrayList<>();
+        for (Entry entry : entries) {
+            long u = entry.sensor().location().x();
+            long v = slope == 1 ? entry.sensor().location().y() - c : c - entry.sensor().location().y();
+            long radius = entry.radius();
+            if (Math.abs(u - v) <= radius) {
+                intervals.add(new long[]{Math.floorDiv(u + v - radius + 1, 2), Math.floorDiv(u + v + radius, 2)});
+            }
+        }
+        intervals.sort(Comparator.comparingLong(interval -> interval[0]));
+
+        long x = from;
+        for (long[] interval : intervals) {
+            if (x > to || interval[0] > x) {
+                break;
+            }
+            x = Math.max(x, interval[1] + 1);
+        }
+        return x <= to ? new Point((int) x, (int) (c + slope * x)) : null;
+    }
+
+    private static Point candidate(long x, long y, int size, List<Entry> entries) {
+        if (x < 0 || x > size || y < 0 || y > size) {
+            return null;
+        }
+        for (Entry entry : entries) {
+            if (entry.withinSensorReach((int) x, (int) y)) {
+                return null;
+            }
+        }
+        return new Point((int) x, (int) y);
+    }
 
-                for (Entry entry : entries) {
-                    if (entry.withinSensorReach(x, y)) {
-                        overlappingEntry = entry;
-                        break;
+    private record UncoveredRun(int y, int startX, int endX) {
+    }
+
+    /**
+     * Streams the runs of positions in the region [minX, maxX] x [minY, maxY] that no sensor can reach. The region is
+     * split into bands of bandHeight rows that are scanned in parallel on the common fork-join pool; each row is
+     * answered from the merged sensor intervals on that row.
+     */
+    private static Stream<UncoveredRun> uncoveredRuns(List<Entry> entries, int minX, int minY, int maxX, int maxY, int bandHeight) {
+        int bandCount = (int) (((long) maxY - minY) / bandHeight) + 1;
+        return IntStream.range(0, bandCount)
+                .parallel()
+                .boxed()
+                .flatMap(band -> {
+                    int fromY = minY + band * bandHeight;
+                    int toY = (int) Math.min(maxY, (long) fromY + bandHeight - 1);
+                    List<UncoveredRun> runs = new ArrayList<>();
+                    for (int y = fromY; y <= toY; y++) {
+                        addUncoveredRuns(entries, y, minX, maxX, runs);
                     }
-                }
+                    return runs.stream();
+                });
+    }
 
-                if (overlappingEntry != null) {
-                    int radius = overlappingEntry.radius();
-                    int deltaY = Math.abs(y - overlappingEntry.sensor().location().y());
-                    int deltaX = radius - deltaY;
-                    x = overlappingEntry.sensor().location().x() + deltaX;
-                } else {
-                    System.out.println("x = " + x);
-                    System.out.println("y = " + y);
-                    long frequency = 4000000L * x + y;
-                    System.out.println("frequency = " + frequency);
-                }
+    private static void addUncoveredRuns(List<Entry> entries, int y, int minX, int maxX, List<UncoveredRun> runs) {
+        int[] intervals = mergedIntervals(entries, y);
+
+        long x = minX;
+        for (int i = 0; i < intervals.length && x <= maxX; i += 2) {
+            if (intervals[i] > x) {
+                runs.add(new UncoveredRun(y, (int) x, Math.min(maxX, intervals[i] - 1)));
             }
+            x = Math.max(x, intervals[i + 1] + 1L);
+        }
+        if (x <= maxX) {
+            runs.add(new UncoveredRun(y, (int) x, maxX));
         }
     }
 
-    private record Point(int x, int y) {
-        int distance(Point other) {
-            return distance(other.x, other.y);
+    /**
+     * Number of positions on the given row where a beacon cannot be present: the union of the sensor ranges on that
+     * row minus the known beacons on it.
+     */
+    private static long rowCoverage(List<Entry> entries, int y) {
+        int[] intervals = mergedIntervals(entries, y);
+
+        long covered = 0;
+        for (int i = 0; i < intervals.length; i += 2) {
+            covered += (long) intervals[i + 1] - intervals[i] + 1;
         }
 
-        public int distance(int x, int y) {
-            return Math.abs(this.x - x) + Math.abs(this.y - y);
+        long beaconsOnRow = entries.stream()
+                .map(e -> e.closestBeacon().location())
+                .filter(p -> p.y() == y)
+                .distinct()
+                .count();
+
+        return covered - beaconsOnRow;
+    }
+
+    /**
+     * Sorted, non-overlapping and non-adjacent x-intervals covered by the sensors on the given row, flattened as
+     * start/end pairs with inclusive bounds.
+     */
+    private static int[] mergedIntervals(List<Entry> entries, int y) {
+        long[] ranges = new long[entries.size()];
+        int count = 0;
+        for (Entry entry : entries) {
+            if (Math.abs(y - entry.sensor().location().y()) <= entry.radius()) {
+                // Pack start and end into a long so sorting orders the ranges by start
+                ranges[count++] = ((long) entry.minX(y) << 32) | (entry.maxX(y) & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(ranges, 0, count);
+
+        int[] merged = new int[count * 2];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int start = (int) (ranges[i] >> 32);
+            int end = (int) ranges[i];
+            if (size > 0 && (long) start <= (long) merged[size - 1] + 1) {
+                merged[size - 1] = Math.max(merged[size - 1], end);
+            } else {
+                merged[size++] = start;
+                merged[size++] = end;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    record Point(int x, int y) {
+        int distance(Point other) {
+            return Math.abs(x - other.x) + Math.abs(y - other.y);
         }
     }
 
@@ -68,7 +228,7 @@ public class Day15 {
     private record Beacon(Point location) {
     }
 
-    private record Entry(Sensor sensor, Beacon closestBeacon, int radius) {
+    record Entry(Sensor sensor, Beacon closestBeacon, int radius) {
         private Entry(Sensor sensor, Beacon closestBeacon) {
             this(
                     sensor,
@@ -99,19 +259,16 @@ public class Day15 {
             return sensor().location().x() + deltaX;
         }
 
-        public boolean withinSensorReach(Point location) {
-            return withinSensorReach(location.x(), location.y());
-        }
-
         public boolean withinSensorReach(int x, int y) {
-            int distance = sensor().location().distance(x, y);
+            Point location = sensor().location();
+            long distance = Math.abs((long) location.x() - x) + Math.abs((long) location.y() - y);
             return distance <= this.radius();
         }
     }
 
     private static final Pattern ENTRY = Pattern.compile("Sensor at x=(?<sensorx>-?[0-9]+), y=(?<sensory>-?[0-9]+): closest beacon is at x=(?<beaconx>-?[0-9]+), y=(?<beacony>-?[0-9]+)");
 
-    private static Entry parse(String s) {
+    static Entry parse(String s) {
         Matcher matcher = ENTRY.matcher(s);
         if (!matcher.matches()) {
             throw new IllegalArgumentException(s);
@@ -4,283 +4,402 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.regex.Matcher;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 public class Day16 {
+    // Queued tasks a worker may already have before it stops forking and searches sequentially
+    private static final int SEARCH_SURPLUS_TASKS = 3;
+
     private static final Pattern ENTRY = Pattern.compile("Valve (?<name>[^ ]+) has flow rate=(?<rate>[0-9]+); tunnels? leads? to valves? (?<tunnels>.*)");
 
-    private static class Valve {
+    private static ValveNetwork parseInput(Path path, String startingPoint) throws IOException {
+        return parseInput(Files.readAllLines(path), startingPoint);
+    }
 
-        private final String name;
-        private final int rate;
-        private final Set<Tunnel> tunnels = new HashSet<>();
+    static ValveNetwork parseInput(List<String> lines, String startingPoint) {
+        Map<String, Integer> indices = new HashMap<>();
+        int[] rates = new int[lines.size()];
+        String[][] connections = new String[lines.size()][];
 
-        private int index;
-        private int[] dist;
+        for (int i = 0; i < lines.size(); i++) {
+            Matcher m = ENTRY.matcher(lines.get(i));
+            if (!m.matches()) {
+                throw new IllegalArgumentException(lines.get(i));
+            }
 
-        public Valve(String name, int rate) {
-            this.name = name;
-            this.rate = rate;
+            indices.put(m.group("name"), i);
+            rates[i] = Integer.parseInt(m.group("rate"));
+            connections[i] = m.group("tunnels").split(", ");
         }
 
-        public String name() {
-            return name;
+        int[][] adjacency = new int[lines.size()][];
+        for (int i = 0; i < connections.length; i++) {
+            adjacency[i] = Arrays.stream(connections[i]).mapToInt(indices::get).toArray();
         }
 
-        public int flowRate() {
-            return rate;
+        Integer start = indices.get(startingPoint);
+        if (start == null) {
+            throw new IllegalArgumentException("Unknown valve: " + startingPoint);
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == this) {
-                return true;
-            }
+        return ValveNetwork.of(rates, adjacency, start);
+    }
 
-            if (!(obj instanceof Valve)) {
-                return false;
-            }
+    public static void main(String[] args) throws IOException {
+        ValveNetwork network = parseInput(Paths.get("day16_input.txt"), "AA");
 
-            return index == ((Valve) obj).index;
-        }
+        System.out.println("score = " + maxScore(network, 30));
+        System.out.println("scoreAlt = " + (network.fitsStateTables()
+                ? ValveNetwork.bestScoreForAgents(network.bestScoreByOpenedValves(26), 2)
+                : maxScoreAlt(network, 26)));
+    }
 
-        @Override
-        public int hashCode() {
-            return Integer.hashCode(index);
-        }
+    /**
+     * Valves with a positive flow rate indexed 0..k-1 in descending flow rate order so a set of opened valves fits in
+     * an int mask. The starting valve gets index k. distances holds the travel time between every pair of these valves.
+     */
+    record ValveNetwork(int[] flowRates, int[][] distances) {
+        /**
+         * Compresses the tunnel graph to the valves with a positive flow rate plus the start, using a breadth-first
+         * search over the adjacency lists from each of them to find the travel times.
+         */
+        public static ValveNetwork of(int[] rates, int[][] adjacency, int start) {
+            int[] relevant = IntStream.concat(
+                    IntStream.range(0, rates.length)
+                            .filter(v -> rates[v] > 0 && v != start)
+                            .boxed()
+                            .sorted(Comparator.comparingInt((Integer v) -> rates[v]).reversed())
+                            .mapToInt(Integer::intValue),
+                    IntStream.of(start)
+            ).toArray();
+            int k = relevant.length - 1;
+            if (k > 30) {
+                throw new IllegalArgumentException("Too many valves with a positive flow rate: " + k);
+            }
 
-        @Override
-        public String toString() {
-            return name() + "(" + flowRate() + ")";
-        }
+            int[] flowRates = new int[k];
+            int[][] distances = new int[k + 1][];
+            int[] queue = new int[rates.length];
+            int[] dist = new int[rates.length];
+            for (int i = 0; i <= k; i++) {
+                if (i < k) {
+                    flowRates[i] = rates[relevant[i]];
+                }
 
-        public int costToTravelTo(Valve v) {
-            return dist[v.index];
-        }
-    }
+                Arrays.fill(dist, -1);
+                dist[relevant[i]] = 0;
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = relevant[i];
+                while (head < tail) {
+                    int u = queue[head++];
+                    for (int v : adjacency[u]) {
+                        if (dist[v] == -1) {
+                            dist[v] = dist[u] + 1;
+                            queue[tail++] = v;
+                        }
+                    }
+                }
 
-    private record Tunnel(Valve v1, Valve v2, int cost) {
-        private Tunnel(Valve v1, Valve v2, int cost) {
-            if (v1.name().compareTo(v2.name()) < 0) {
-                this.v1 = v1;
-                this.v2 = v2;
-            } else {
-                this.v1 = v2;
-                this.v2 = v1;
+                distances[i] = new int[k + 1];
+                for (int j = 0; j <= k; j++) {
+                    // Unreachable valves can never be opened in time
+                    distances[i][j] = dist[relevant[j]] == -1 ? Integer.MAX_VALUE / 2 : dist[relevant[j]];
+                }
             }
-            this.cost = cost;
+            return new ValveNetwork(flowRates, distances);
         }
 
-        public Valve otherValve(Valve endpoint) {
-            return v1().equals(endpoint) ? v2() : v1();
+        public int valveCount() {
+            return flowRates.length;
         }
-    }
 
-    private static List<Valve> parseInput(Path path) throws IOException {
-        List<String> lines = Files.readAllLines(path);
+        public int start() {
+            return flowRates.length;
+        }
 
-        Map<String, Valve> valves = new HashMap<>();
-        Map<String, String[]> connections = new HashMap<>();
-        Set<Tunnel> tunnels = new HashSet<>();
+        /**
+         * Whether the tables of bestScoreByOpenedValves and bestScoreForAgents fit in the heap. They hold about
+         * 2 * (k + 1) + 3 ints per set of opened valves, so past a couple of dozen valves only the searches can answer.
+         */
+        public boolean fitsStateTables() {
+            long masks = 1L << valveCount();
+            long seenStates = masks * (valveCount() + 1);
+            long bytes = (2 * seenStates + 3 * masks) * Integer.BYTES;
+            return seenStates <= Integer.MAX_VALUE - 8 && bytes <= Runtime.getRuntime().maxMemory() / 2;
+        }
 
-        int index = 0;
-        for (String line : lines) {
-            Matcher m = ENTRY.matcher(line);
-            if (!m.matches()) {
-                throw new IllegalArgumentException(line);
+        /**
+         * Explores every reachable (position, opened valves, time left) state and records the best pressure released
+         * for each set of opened valves. The table can be combined for single and multiple agent queries.
+         */
+        public int[] bestScoreByOpenedValves(int timeLimit) {
+            if (!fitsStateTables()) {
+                throw new IllegalStateException("Too many valves with a positive flow rate for the state tables: " + valveCount());
             }
 
-            String name = m.group("name");
-            int rate = Integer.parseInt(m.group("rate"));
+            int[] best = new int[1 << valveCount()];
+            int[] seenTimeLeft = new int[best.length * (valveCount() + 1)];
+            int[] seenScore = new int[seenTimeLeft.length];
+            Arrays.fill(seenTimeLeft, -1);
+            visit(start(), 0, timeLimit, 0, best, seenTimeLeft, seenScore);
+            return best;
+        }
 
-            Valve valve = new Valve(name, rate);
-            valve.index = index++;
-            valves.put(name, valve);
+        /**
+         * Best score when several agents open valves independently. Agents never gain from opening the same valve
+         * twice, so the best combined score splits the valves into disjoint sets, one per agent.
+         */
+        public static int bestScoreForAgents(int[] bestByMask, int agents) {
+            if (agents < 1) {
+                throw new IllegalArgumentException("agents must be positive");
+            }
 
-            connections.put(name, m.group("tunnels").split(", "));
-        }
+            int[] bestBySubset = bestBySubset(bestByMask);
+            int full = bestByMask.length - 1;
+            if (agents == 1) {
+                return bestBySubset[full];
+            }
 
-        for (Map.Entry<String, String[]> entry : connections.entrySet()) {
-            Valve from = valves.get(entry.getKey());
-            for (String toName : entry.getValue()) {
-                tunnels.add(new Tunnel(from, valves.get(toName), 1));
+            int[] combined = bestBySubset;
+            for (int agent = 2; agent < agents; agent++) {
+                int[] previous = combined;
+                combined = IntStream.range(0, bestByMask.length)
+                        .parallel()
+                        .map(mask -> bestSplit(previous, bestBySubset, mask))
+                        .toArray();
             }
+            return bestSplit(combined, bestBySubset, full);
         }
 
-        // Eliminate irrelevant nodes.
-        Iterator<Map.Entry<String, Valve>> valveIterator = valves.entrySet().iterator();
-        while (valveIterator.hasNext()) {
-            Map.Entry<String, Valve> entry = valveIterator.next();
-            Valve v = entry.getValue();
-            if (v.flowRate() == 0) {
-                List<Tunnel> outgoingTunnels = tunnels.stream().filter(t -> t.v1().equals(v) || t.v2().equals(v)).toList();
-                if (outgoingTunnels.size() == 2) {
-                    valveIterator.remove();
-                    tunnels.removeAll(outgoingTunnels);
-                    Tunnel t1 = outgoingTunnels.get(0);
-                    Tunnel t2 = outgoingTunnels.get(1);
-                    tunnels.add(new Tunnel(
-                            t1.otherValve(v),
-                            t2.otherValve(v),
-                            t1.cost() + t2.cost()
-                    ));
-                }
+        /**
+         * Maximum of left[s] + right[mask ^ s] over all subsets s of mask.
+         */
+        private static int bestSplit(int[] left, int[] right, int mask) {
+            int best = left[0] + right[mask];
+            for (int s = mask; s > 0; s = (s - 1) & mask) {
+                best = Math.max(best, left[s] + right[mask ^ s]);
             }
+            return best;
         }
 
-        for (Tunnel tunnel : tunnels) {
-            tunnel.v1().tunnels.add(tunnel);
-            tunnel.v2().tunnels.add(tunnel);
-        }
-        List<Valve> valveList = new ArrayList<>(valves.values());
-        for (int i = 0; i < valveList.size(); i++) {
-            valveList.get(i).index = i;
+        /**
+         * Superset-sum (SOS) transform with max: the result holds for every mask the best score over all its subsets.
+         */
+        private static int[] bestBySubset(int[] bestByMask) {
+            int[] result = bestByMask.clone();
+            for (int bit = 1; bit < result.length; bit <<= 1) {
+                int b = bit;
+                IntStream.range(0, result.length)
+                        .parallel()
+                        .filter(mask -> (mask & b) != 0)
+                        .forEach(mask -> result[mask] = Math.max(result[mask], result[mask ^ b]));
+            }
+            return result;
         }
-        return valveList;
-    }
-
-    public static void main(String[] args) throws IOException {
-        List<Valve> valves = parseInput(Paths.get("day16_input.txt"));
 
-        // Create a complete graph
-        for (Valve v1 : valves) {
-            v1.dist = dijkstra(valves, v1);
+        /**
+         * Optimistic bound on the pressure still to be released: the closed valves are opened in descending flow rate
+         * order, each agent taking the earliest slot available, as if every valve were one minute away.
+         */
+        public int upperBound(int openedMask, int timeLeft1, int timeLeft2) {
+            int bound = 0;
+            int slot1 = timeLeft1 - 2;
+            int slot2 = timeLeft2 - 2;
+            for (int valve = 0; valve < flowRates.length; valve++) {
+                if ((openedMask & (1 << valve)) != 0) {
+                    continue;
+                }
+                int slot = Math.max(slot1, slot2);
+                if (slot <= 0) {
+                    break;
+                }
+                bound += slot * flowRates[valve];
+                if (slot1 >= slot2) {
+                    slot1 -= 2;
+                } else {
+                    slot2 -= 2;
+                }
+            }
+            return bound;
         }
 
-        System.out.println("score = " + maxScore(valves, "AA"));
-        System.out.println("scoreAlt = " + maxScoreAlt(valves, "AA"));
-    }
-
-    private static int maxScore(List<Valve> valves, String startingPoint) {
-        Valve[] remaining = valves.toArray(Valve[]::new);
-        Valve start = null;
-        for (Valve valve : remaining) {
-            if (valve.name().equals(startingPoint)) {
-                start = valve;
-                break;
+        /**
+         * Closed valves that can still be opened in time from position, most pressure released first.
+         */
+        public int[] movesByGreedyValue(int position, int openedMask, int timeLeft) {
+            int[] moves = new int[flowRates.length];
+            int[] values = new int[flowRates.length];
+            int count = 0;
+            for (int next = 0; next < flowRates.length; next++) {
+                if ((openedMask & (1 << next)) != 0) {
+                    continue;
+                }
+                int timeOpen = timeLeft - distances[position][next] - 1;
+                if (timeOpen <= 0) {
+                    continue;
+                }
+                int value = timeOpen * flowRates[next];
+                int i = count++;
+                while (i > 0 && values[i - 1] < value) {
+                    moves[i] = moves[i - 1];
+                    values[i] = values[i - 1];
+                    i--;
+                }
+                moves[i] = next;
+                values[i] = value;
             }
+            return Arrays.copyOf(moves, count);
         }
-        remaining[start.index] = null;
-        int timeLeft = 30;
-        return maxScore(remaining, start, timeLeft, 0);
-    }
 
-    private static int maxScore(Valve[] remainingValves, Valve current, int timeLeft, int score) {
-        int bestScore = score;
-
-        for (Valve otherValve : remainingValves) {
-            if (otherValve == null) {
-                continue;
+        /**
+         * Depth-first walk over the states. seenTimeLeft and seenScore hold, per (opened valves, position), the last
+         * state explored from there; a state with no more time left and no higher score cannot reach anything that
+         * one did not, so it is skipped.
+         */
+        private void visit(int position, int openedMask, int timeLeft, int score, int[] best, int[] seenTimeLeft, int[] seenScore) {
+            int state = openedMask * (flowRates.length + 1) + position;
+            if (seenTimeLeft[state] >= timeLeft && seenScore[state] >= score) {
+                return;
             }
+            seenTimeLeft[state] = timeLeft;
+            seenScore[state] = score;
 
-            int costToOpen = current.costToTravelTo(otherValve) + 1;
-            int timeOpen = timeLeft - costToOpen;
-            if (timeOpen > 0) {
-                remainingValves[otherValve.index] = null;
+            if (score > best[openedMask]) {
+                best[openedMask] = score;
+            }
 
-                int newScore = maxScore(remainingValves, otherValve, timeOpen, score + timeOpen * otherValve.flowRate());
-                if (newScore > bestScore) {
-                    bestScore = newScore;
+            int[] distancesFromPosition = distances[position];
+            for (int next = 0; next < flowRates.length; next++) {
+                if ((openedMask & (1 << next)) != 0) {
+                    continue;
+                }
+                int timeOpen = timeLeft - distancesFromPosition[next] - 1;
+                if (timeOpen > 0) {
+                    visit(next, openedMask | (1 << next), timeOpen, score + timeOpen * flowRates[next], best, seenTimeLeft, seenScore);
                 }
-
-                remainingValves[otherValve.index] = otherValve;
             }
         }
+    }
 
-        return bestScore;
+    /**
+     * Best pressure a single agent can release. Unlike bestScoreByOpenedValves this only needs the maximum, so the
+     * search can drop every branch that cannot beat the best score found so far.
+     */
+    static int maxScore(ValveNetwork network, int timeLeft) {
+        return search(network, timeLeft, 0);
     }
 
-    private static int maxScoreAlt(List<Valve> valves, String startingPoint) {
-        Valve[] remaining = valves.toArray(Valve[]::new);
-        Valve start = null;
-        for (Valve valve : remaining) {
-            if (valve.name().equals(startingPoint)) {
-                start = valve;
-                break;
-            }
-        }
-        remaining[start.index] = null;
-        int timeLeft = 26;
-        return maxScoreAlt(remaining, start, timeLeft, start, timeLeft, 0);
+    /**
+     * Best pressure two agents can release, searching both schedules jointly instead of combining per valve set
+     * tables.
+     */
+    static int maxScoreAlt(ValveNetwork network, int timeLeft) {
+        return search(network, timeLeft, timeLeft);
     }
 
-    private static int maxScoreAlt(Valve[] remainingValves, Valve current1, int timeLeft1, Valve current2, int timeLeft2, int score) {
-        int bestScore = score;
+    /**
+     * Runs the search on the common fork-join pool. A task forks a subtask per move for as long as the pool is short
+     * of queued work and otherwise finishes its subtree sequentially; all tasks share the best score found so far for
+     * pruning.
+     */
+    private static int search(ValveNetwork network, int timeLeft1, int timeLeft2) {
+        AtomicInteger best = new AtomicInteger();
+        ForkJoinPool.commonPool().invoke(
+                new SearchTask(network, 0, network.start(), timeLeft1, network.start(), timeLeft2, 0, best)
+        );
+        return best.get();
+    }
 
-        for (Valve o1 : remainingValves) {
-            if (o1 == null) {
-                continue;
-            }
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ValveNetwork network;
+        private final int openedMask;
+        private final int current1;
+        private final int timeLeft1;
+        private final int current2;
+        private final int timeLeft2;
+        private final int score;
+        private final AtomicInteger best;
+
+        SearchTask(ValveNetwork network, int openedMask, int current1, int timeLeft1, int current2, int timeLeft2, int score, AtomicInteger best) {
+            this.network = network;
+            this.openedMask = openedMask;
+            this.current1 = current1;
+            this.timeLeft1 = timeLeft1;
+            this.current2 = current2;
+            this.timeLeft2 = timeLeft2;
+            this.score = score;
+            this.best = best;
+        }
 
-            int costToOpen1 = current1.costToTravelTo(o1) + 1;
-            int timeOpen1 = timeLeft1 - costToOpen1;
-            if (timeOpen1 > 0) {
-                for (Valve o2 : remainingValves) {
-                    if (o2 == o1 || o2 == null) {
-                        continue;
-                    }
+        @Override
+        protected void compute() {
+            updateBest(best, score);
 
-                    int costToOpen2 = current2.costToTravelTo(o2) + 1;
-                    int timeOpen2 = timeLeft2 - costToOpen2;
-                    int newScore;
-                    if (timeOpen2 > 0) {
-                        remainingValves[o1.index] = null;
-                        remainingValves[o2.index] = null;
-                        newScore = maxScoreAlt(remainingValves, o1, timeOpen1, o2, timeOpen2, score + timeOpen1 * o1.flowRate() + timeOpen2 * o2.flowRate());
-                        remainingValves[o1.index] = o1;
-                        remainingValves[o2.index] = o2;
-                    } else {
-                        remainingValves[o1.index] = null;
-                        newScore = maxScoreAlt(remainingValves, o1, timeOpen1, current2, timeLeft2, score + timeOpen1 * o1.flowRate());
-                        remainingValves[o1.index] = o1;
-                    }
+            if (score + network.upperBound(openedMask, timeLeft1, timeLeft2) <= best.get()) {
+                return;
+            }
 
-                    if (newScore > bestScore) {
-                        bestScore = newScore;
-                    }
-                }
-            } else {
-                int costToOpen2 = current2.costToTravelTo(o1) + 1;
-                int timeOpen2 = timeLeft2 - costToOpen2;
-                if (timeOpen2 > 0) {
-                    remainingValves[o1.index] = null;
-                    int newScore = maxScoreAlt(remainingValves, current1, timeLeft1, o1, timeOpen2, score + timeOpen2 * o1.flowRate());
-                    if (newScore > bestScore) {
-                        bestScore = newScore;
-                    }
-                    remainingValves[o1.index] = o1;
-                }
+            if (getSurplusQueuedTaskCount() > SEARCH_SURPLUS_TASKS) {
+                maxScore(network, openedMask, current1, timeLeft1, current2, timeLeft2, score, best);
+                return;
             }
-        }
 
-        return bestScore;
+            // Same move order as the sequential search: the agent with the most time left moves
+            boolean swap = timeLeft1 < timeLeft2;
+            int c1 = swap ? current2 : current1;
+            int t1 = swap ? timeLeft2 : timeLeft1;
+            int c2 = swap ? current1 : current2;
+            int t2 = swap ? timeLeft1 : timeLeft2;
+
+            List<SearchTask> children = new ArrayList<>();
+            for (int other : network.movesByGreedyValue(c1, openedMask, t1)) {
+                int timeOpen = t1 - network.distances()[c1][other] - 1;
+                children.add(new SearchTask(network, openedMask | (1 << other), other, timeOpen, c2, t2, score + timeOpen * network.flowRates()[other], best));
+            }
+            if (t2 > 0) {
+                children.add(new SearchTask(network, openedMask, c1, 0, c2, t2, score, best));
+            }
+            invokeAll(children);
+        }
     }
 
-    private static int[] dijkstra(List<Valve> graph, Valve source) {
-        Set<Valve> queue = new HashSet<>(graph);
-        int[] dist = new int[graph.size()];
-        for (Valve valve : graph) {
-            dist[valve.index] = Integer.MAX_VALUE;
+    private static void updateBest(AtomicInteger best, int score) {
+        if (score > best.get()) {
+            best.accumulateAndGet(score, Math::max);
         }
-        dist[source.index] = 0;
+    }
 
-        while(!queue.isEmpty()) {
-            Valve u = queue.stream().min(Comparator.comparingInt(v -> dist[v.index])).orElse(null);
-            queue.remove(u);
+    /**
+     * Search where the agent with the most time left picks its next valve, or stops opening valves. This visits every
+     * combination of schedules once instead of enumerating both agents' moves jointly. A single agent is searched by
+     * giving the second agent no time.
+     */
+    private static void maxScore(ValveNetwork network, int openedMask, int current1, int timeLeft1, int current2, int timeLeft2, int score, AtomicInteger best) {
+        updateBest(best, score);
 
-            for (Tunnel t : u.tunnels) {
-                Valve v = t.otherValve(u);
-                if (!queue.contains(v)) {
-                    continue;
-                }
+        if (score + network.upperBound(openedMask, timeLeft1, timeLeft2) <= best.get()) {
+            return;
+        }
 
-                int alt = dist[u.index] + t.cost();
-                if (alt < dist[v.index]) {
-                    dist[v.index] = alt;
-                }
-            }
+        if (timeLeft1 < timeLeft2) {
+            maxScore(network, openedMask, current2, timeLeft2, current1, timeLeft1, score, best);
+            return;
         }
 
-        return dist;
+        for (int other : network.movesByGreedyValue(current1, openedMask, timeLeft1)) {
+            int timeOpen = timeLeft1 - network.distances()[current1][other] - 1;
+            maxScore(network, openedMask | (1 << other), other, timeOpen, current2, timeLeft2, score + timeOpen * network.flowRates()[other], best);
+        }
+
+        if (timeLeft2 > 0) {
+            maxScore(network, openedMask, current1, 0, current2, timeLeft2, score, best);
+        }
     }
 }
@@ -1,10 +1,9 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Supplier;
 
 public class Day17 {
@@ -12,6 +11,7 @@ public class Day17 {
         private final int width;
         private final int height;
         private final int[] shape;
+        private final long[] masks;
 
         public Shape(String lines) {
             char[][] grid = Arrays.stream(lines.split("\n")).map(String::toCharArray).toArray(char[][]::new);
@@ -27,6 +27,20 @@ public class Day17 {
                     }
                 }
             }
+
+            masks = new long[8 - width];
+            for (int x = 0; x < masks.length; x++) {
+                for (int y = 0; y < height; y++) {
+                    masks[x] |= (long) (shape[y] << x) << (8 * y);
+                }
+            }
+        }
+
+        /**
+         * The shape at horizontal position x packed one row per byte, bottom row in the lowest byte.
+         */
+        public long mask(int x) {
+            return masks[x];
         }
 
         public boolean filled(int x, int y) {
@@ -36,10 +50,6 @@ public class Day17 {
             return (shape[y] & (1 << x)) != 0;
         }
 
-        public int asGridRow(int x, int y) {
-            return shape[y] << x;
-        }
-
         public int width() {
             return width;
         }
@@ -135,21 +145,26 @@ public class Day17 {
         }
     }
 
-    private static class Grid {
-        private final long longMask;
-        private final int intMask;
-        private final int fullRow;
+    /**
+     * Chamber rows packed one row per byte, eight rows per long, in pages that are added as the tower grows. Any 8
+     * consecutive rows can be read as a single long so a shape can be tested against the chamber with one AND. Pages
+     * are only discarded once no falling rock can reach them anymore, so memory is bounded by the depth of the open
+     * surface instead of a fixed number of rows.
+     */
+    private static class Chamber {
+        private static final int FULL_ROW = 0b1111111;
+        private static final int PAGE_WORDS = 64;
+        private static final int PAGE_ROWS = PAGE_WORDS * 8;
+        private static final int SURFACE_DEPTH = 1024;
+
+        private final List<long[]> pages = new ArrayList<>();
+        private long firstPage;
         private long minY;
         private long maxY;
-        int[] grid;
-
-        public Grid() {
-            this.grid = new int[4096];
-            longMask = this.grid.length - 1;
-            intMask = this.grid.length - 1;
-            fullRow = 0b1111111;
+        private long nextDiscardY = PAGE_ROWS;
 
-            grid[0] = fullRow;
+        public Chamber() {
+            setRow(0, FULL_ROW);
         }
 
         public long minY() {
@@ -160,70 +175,84 @@ public class Day17 {
             return maxY;
         }
 
-        public boolean overlaps(int x, long y, Shape shape) {
-            if (x < 0 || x + shape.width() > 7) {
-                return true;
+        private long word(long wordIndex) {
+            long page = wordIndex / PAGE_WORDS - firstPage;
+            if (page < 0) {
+                // Discarded rows are unreachable, which is the same as being filled
+                return -1L;
             }
-
-            if (y > maxY) {
-                return false;
+            if (page >= pages.size()) {
+                return 0;
             }
+            return pages.get((int) page)[(int) (wordIndex % PAGE_WORDS)];
+        }
 
-            int height = shape.height();
-
-            long gridY = y;
-            for (int shapeY = 0; shapeY < height; shapeY++, gridY++) {
-                if (gridY > maxY) {
-                    return false;
-                }
-
-                int shapeRow = shape.asGridRow(x, shapeY);
-                int gridRow = grid[(int) (gridY & longMask)];
-                if ((shapeRow & gridRow) != 0) {
-                    return true;
-                }
+        private long rows(long y) {
+            long word = y >>> 3;
+            int offset = (int) (y & 7) * 8;
+            long rows = word(word) >>> offset;
+            if (offset != 0) {
+                rows |= word(word + 1) << (64 - offset);
             }
+            return rows;
+        }
 
-            return false;
+        private int row(long y) {
+            return (int) (word(y >>> 3) >>> ((y & 7) * 8)) & 0xFF;
         }
 
-        public void add(int x, long y, Shape shape) {
-            ensureCapacity(y, shape);
-            addShape(x, y, shape);
+        private void setRow(long y, int row) {
+            long word = y >>> 3;
+            long page = word / PAGE_WORDS - firstPage;
+            if (page < 0) {
+                throw new IllegalStateException("Row " + y + " has been discarded");
+            }
+            while (page >= pages.size()) {
+                pages.add(new long[PAGE_WORDS]);
+            }
+            long[] words = pages.get((int) page);
+            int index = (int) (word % PAGE_WORDS);
+            int offset = (int) (y & 7) * 8;
+            words[index] = (words[index] & ~(0xFFL << offset)) | ((long) row << offset);
         }
 
-        private void addShape(int x, long y, Shape shape) {
-            long cutoffY = -1;
-            int gridY = (int)(y & longMask);
-            for (int shapeY = 0; shapeY < shape.height(); shapeY++) {
-                int rowIndex = (gridY + shapeY) & intMask;
+        public boolean overlaps(Shape shape, int x, long y) {
+            if (x < 0 || x + shape.width() > 7) {
+                return true;
+            }
+            return (rows(y) & shape.mask(x)) != 0;
+        }
 
-                int shapeRow = shape.asGridRow(x, shapeY);
-                int newRow = grid[rowIndex] | shapeRow;
+        public void add(Shape shape, int x, long y) {
+            long top = y + shape.height() - 1;
+            if (top > maxY) {
+                maxY = top;
+            }
 
-                grid[rowIndex] = newRow;
-                if (newRow == fullRow) {
-                    cutoffY = y + shapeY;
+            long mask = shape.mask(x);
+            for (int shapeY = 0; shapeY < shape.height(); shapeY++) {
+                int newRow = row(y + shapeY) | (int) ((mask >>> (8 * shapeY)) & 0xFF);
+                setRow(y + shapeY, newRow);
+                if (newRow == FULL_ROW && y + shapeY > minY) {
+                    minY = y + shapeY;
                 }
             }
 
-            if (cutoffY != -1) {
-                minY = cutoffY;
+            if (maxY >= nextDiscardY) {
+                discardUnreachablePages();
+                nextDiscardY = maxY + PAGE_ROWS;
             }
         }
 
-        private void ensureCapacity(long y, Shape shape) {
-            long maxY = y + shape.height() - 1;
-
-            long newRows = maxY - this.maxY;
-            if (newRows > 0) {
-                int gridY = (int)((this.maxY + 1) & longMask);
-
-                for (int i = 0; i < newRows; i++) {
-                     grid[(gridY + i) & intMask] = 0;
-                }
-
-                this.maxY = maxY;
+        private void discardUnreachablePages() {
+            // A falling rock tests the row just below the lowest cell it can reach
+            long keepFromY = Math.max(minY, lowestReachableY() - 1);
+            long keepFromPage = (keepFromY >>> 3) / PAGE_WORDS;
+            int discard = (int) (keepFromPage - firstPage);
+            if (discard > 0) {
+                pages.subList(0, discard).clear();
+                firstPage = keepFromPage;
+                minY = Math.max(minY, firstPage * PAGE_ROWS);
             }
         }
 
@@ -232,39 +261,84 @@ public class Day17 {
                 return false;
             }
 
-            return (grid[(int) (y & longMask)] & (1 << x)) != 0;
+            return (row(y) & (1 << x)) != 0;
         }
 
-        public String topRows(int rowCount) {
-            StringBuilder b = new StringBuilder(7 * rowCount);
-            for (int i = 0; i < rowCount; i++) {
-                long y = maxY - i;
-                if (y < minY) {
+        /**
+         * Empty cells of row y that can be reached from the reachable cells of the row above.
+         */
+        private int reachable(long y, int reachableAbove) {
+            int free = ~row(y) & FULL_ROW;
+            int r = reachableAbove & free;
+            int previous;
+            do {
+                previous = r;
+                r |= ((r << 1) | (r >>> 1)) & free;
+            } while (r != previous);
+            return r;
+        }
+
+        private long lowestReachableY() {
+            int reachable = FULL_ROW;
+            long y = maxY;
+            while (y > minY) {
+                reachable = reachable(y, reachable);
+                if (reachable == 0) {
                     break;
                 }
-                for (int x = 0; x < 7; x++) {
-                    b.append(filled(x, y) ? '.' : '#');
-                }
+                y--;
             }
+            return y + 1;
+        }
+
+        /**
+         * Hash of the empty cells that can still be reached from above, walking down row by row. Cells that cannot
+         * be reached never influence later rocks, so two chambers with the same reachable cells evolve identically.
+         * A shaft that is never closed off would make the surface grow forever, so only the top SURFACE_DEPTH rows
+         * are taken into account.
+         */
+        public long surfaceHash() {
+            long hash = 0;
+            int reachable = FULL_ROW;
+            long bottomY = Math.max(minY, maxY - SURFACE_DEPTH);
+            for (long y = maxY; y > bottomY; y--) {
+                reachable = reachable(y, reachable);
+                if (reachable == 0) {
+                    break;
+                }
 
-            return b.toString();
+                hash = (hash + reachable) * 0x9E3779B97F4A7C15L;
+            }
+            return hash ^ (hash >>> 29);
         }
+    }
 
-        public void shift(long deltaHeight) {
-            long newMinY = minY + deltaHeight;
-            long newMaxY = maxY + deltaHeight;
-            int[] newGrid = new int[grid.length];
-            for (long oldY = minY, newY = newMinY; oldY <= maxY; oldY++, newY++) {
-                newGrid[(int)(newY & longMask)] = grid[(int)(oldY & longMask)];
+    /**
+     * Drops a single rock and adds it to the chamber. A rock appears three rows above the tower, so the first four
+     * jets can only push it against the walls and the first three falls always succeed.
+     */
+    private static void dropRock(Chamber chamber, Shape shape, JetSupplier jets) {
+        int x = 2;
+        for (int i = 0; i < 4; i++) {
+            int newX = jets.get() == '<' ? x - 1 : x + 1;
+            if (newX >= 0 && newX + shape.width() <= 7) {
+                x = newX;
             }
+        }
 
-            minY = newMinY;
-            maxY = newMaxY;
-            grid = newGrid;
+        long y = chamber.maxY() + 1;
+        while (!chamber.overlaps(shape, x, y - 1)) {
+            y--;
+            int newX = jets.get() == '<' ? x - 1 : x + 1;
+            if (!chamber.overlaps(shape, newX, y)) {
+                x = newX;
+            }
         }
+
+        chamber.add(shape, x, y);
     }
 
-    private static void print(String header, Grid grid, int blockX, long blockY, Shape shape, long maxRows) {
+    private static void print(String header, Chamber grid, int blockX, long blockY, Shape shape, long maxRows) {
         System.out.println(header);
 
         long minY = grid.minY();
@@ -294,90 +368,153 @@ public class Day17 {
         System.out.println();
     }
 
-    private record Key(int shapeIndex, int jetIndex, String grid) {
-    }
-
-    private record Value(long blockCount, long maxY) {
-    }
-
-    public static void main(String[] args) throws IOException {
-        ShapeSupplier shapes = new ShapeSupplier(SHAPE1, SHAPE2, SHAPE3, SHAPE4, SHAPE5);
-        JetSupplier jets = new JetSupplier(Files.readAllBytes(Paths.get("day17_input.txt")));
-
-        Map<Key, Value> cache = new HashMap<>();
-
-//        long nbBlocksToSimulate = 2022;
-        long nbBlocksToSimulate = 1000000000000L;
-
-        long nbFallenBlocks = 0;
-
-        Grid fallenBlocks = new Grid();
-
-        int currentX = 2;
-        long currentY = fallenBlocks.maxY() + 4;
-        int rowsToCache = 100;
-        Key key = new Key(
-                shapes.index,
-                jets.index,
-                fallenBlocks.topRows(rowsToCache)
-        );
-        cache.put(key, new Value(0, fallenBlocks.maxY()));
-        Shape currentShape = shapes.get();
-
-        // print("Rock 0 begins falling:", fallenBlocks, currentBlock);
-        while (nbFallenBlocks < nbBlocksToSimulate) {
+    /**
+     * Open addressing map from (shape index, jet index, surface hash) to the block count and height at which that
+     * state was first seen.
+     */
+    private static class CycleCache {
+        private int[] states = new int[1024];
+        private long[] hashes = new long[1024];
+        private long[] blockCounts = new long[1024];
+        private long[] heights = new long[1024];
+        private int size;
+
+        public CycleCache() {
+            Arrays.fill(states, -1);
+        }
 
-            byte jet = jets.get();
+        private static int slot(int state, long hash, int capacity) {
+            long h = (hash ^ state * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (capacity - 1);
+        }
 
-            int newX;
-            if (jet == '<') {
-                newX = currentX - 1;
-            } else {
-                newX = currentX + 1;
-            };
+        /**
+         * Returns the slot holding the given state, or -1 if it has not been seen yet.
+         */
+        public int find(int state, long hash) {
+            int mask = states.length - 1;
+            for (int i = slot(state, hash, states.length); states[i] != -1; i = (i + 1) & mask) {
+                if (states[i] == state && hashes[i] == hash) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-            if (!fallenBlocks.overlaps(newX, currentY, currentShape)) {
-                currentX = newX;
+        public void put(int state, long hash, long blockCount, long height) {
+            if (2 * (size + 1) > states.length) {
+                grow();
             }
+            int mask = states.length - 1;
+            int i = slot(state, hash, states.length);
+            while (states[i] != -1) {
+                i = (i + 1) & mask;
+            }
+            states[i] = state;
+            hashes[i] = hash;
+            blockCounts[i] = blockCount;
+            heights[i] = height;
+            size++;
+        }
 
-            long newY = currentY - 1;
-            if (!fallenBlocks.overlaps(currentX, newY, currentShape)) {
-                currentY = newY;
-            } else {
-                fallenBlocks.add(currentX, currentY, currentShape);
-                nbFallenBlocks++;
+        public long blockCount(int slot) {
+            return blockCounts[slot];
+        }
 
-                // print("Rock " + nbFallenBlocks + " falls 1 unit, causing it to come to rest:", fallenBlocks, null);
+        public long height(int slot) {
+            return heights[slot];
+        }
 
-                key = new Key(
-                        shapes.index,
-                        jets.index,
-                        fallenBlocks.topRows(rowsToCache)
-                );
+        private void grow() {
+            int[] oldStates = states;
+            long[] oldHashes = hashes;
+            long[] oldBlockCounts = blockCounts;
+            long[] oldHeights = heights;
+
+            int capacity = oldStates.length * 2;
+            states = new int[capacity];
+            hashes = new long[capacity];
+            blockCounts = new long[capacity];
+            heights = new long[capacity];
+            Arrays.fill(states, -1);
+            size = 0;
+
+            for (int i = 0; i < oldStates.length; i++) {
+                if (oldStates[i] != -1) {
+                    put(oldStates[i], oldHashes[i], oldBlockCounts[i], oldHeights[i]);
+                }
+            }
+        }
+    }
 
-                Value previousValue = cache.get(key);
-                if (previousValue != null) {
-                    long deltaBlocks = nbFallenBlocks - previousValue.blockCount();
-                    long deltaHeight = fallenBlocks.maxY() - previousValue.maxY();
+    /**
+     * Simulates the tower until the chamber state repeats and records the height after every block up to that point.
+     * Heights after any number of blocks then follow from the recorded prefix and the repeating cycle.
+     */
+    private static class TowerEngine {
+        private final long[] heights;
+        private final int cycleStart;
+        private final int cycleLength;
+        private final long cycleHeight;
+
+        public TowerEngine(byte[] jetPattern, Shape... shapeList) {
+            ShapeSupplier shapes = new ShapeSupplier(shapeList);
+            JetSupplier jets = new JetSupplier(jetPattern);
+            Chamber chamber = new Chamber();
+            CycleCache cache = new CycleCache();
+
+            long[] heights = new long[1024];
+            int blockCount = 0;
+            cache.put(shapes.index() * jets.size() + jets.index(), chamber.surfaceHash(), 0, chamber.maxY());
+
+            while (true) {
+                dropRock(chamber, shapes.get(), jets);
+                blockCount++;
+
+                if (blockCount == heights.length) {
+                    heights = Arrays.copyOf(heights, heights.length * 2);
+                }
+                heights[blockCount] = chamber.maxY();
 
-                    long remainingBlocks = nbBlocksToSimulate - nbFallenBlocks;
-                    long numberOfCycles = remainingBlocks / deltaBlocks;
+                // print("Rock " + blockCount + " falls 1 unit, causing it to come to rest:", chamber, 0, 0, null, 20);
 
-                    nbFallenBlocks += numberOfCycles * deltaBlocks;
-                    fallenBlocks.shift(numberOfCycles * deltaHeight);
-                } else {
-                    cache.put(key, new Value(nbFallenBlocks, fallenBlocks.maxY()));
+                int state = shapes.index() * jets.size() + jets.index();
+                long surface = chamber.surfaceHash();
+                int previous = cache.find(state, surface);
+                if (previous != -1) {
+                    cycleStart = (int) cache.blockCount(previous);
+                    cycleLength = blockCount - cycleStart;
+                    cycleHeight = chamber.maxY() - cache.height(previous);
+                    break;
                 }
+                cache.put(state, surface, blockCount, chamber.maxY());
+            }
 
-                currentX = 2;
-                currentY = fallenBlocks.maxY() + 4;
-                currentShape = shapes.get();
+            this.heights = Arrays.copyOf(heights, blockCount + 1);
+        }
+
+        public long heightAfter(long blockCount) {
+            if (blockCount < 0) {
+                throw new IllegalArgumentException("Negative block count: " + blockCount);
+            }
 
-                // print("Rock " + nbFallenBlocks + " begins falling:", fallenBlocks, currentBlock);
+            if (blockCount < heights.length) {
+                return heights[(int) blockCount];
             }
+
+            long cycles = (blockCount - cycleStart) / cycleLength;
+            int offset = (int) ((blockCount - cycleStart) % cycleLength);
+            return heights[cycleStart + offset] + cycles * cycleHeight;
         }
+    }
+
+    public static void main(String[] args) throws IOException {
+        TowerEngine tower = new TowerEngine(
+                Files.readAllBytes(Paths.get("day17_input.txt")),
+                SHAPE1, SHAPE2, SHAPE3, SHAPE4, SHAPE5
+        );
 
-        print("End", fallenBlocks, 0, 0, null, Long.MAX_VALUE);
-        System.out.println("maxY = " + fallenBlocks.maxY());
+        System.out.println("heightAfter(2022) = " + tower.heightAfter(2022));
+        System.out.println("heightAfter(1000000000000) = " + tower.heightAfter(1000000000000L));
     }
 }
@@ -2,19 +2,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class Day18 {
     public record Coordinate(int x, int y, int z) {
-        public List<Coordinate> neighbours() {
-            return List.of(
-                    new Coordinate(x, y + 1, z),
-                    new Coordinate(x, y - 1, z),
-                    new Coordinate(x - 1, y, z),
-                    new Coordinate(x + 1, y, z),
-                    new Coordinate(x, y, z + 1),
-                    new Coordinate(x, y, z - 1)
-            );
-        }
     }
 
     public static void main(String[] args) throws IOException {
@@ -23,62 +15,346 @@ public class Day18 {
                 .map(Day18::parse)
                 .toList();
 
-        System.out.println("non touching = " + nonTouchingSurfaces(coordinates));
-        System.out.println("exposed = " + exposedSurfaces(coordinates));
+        VoxelGrid grid = new VoxelGrid(coordinates);
+        System.out.println("non touching = " + grid.surfaceArea());
+        System.out.println("exposed = " + grid.exteriorSurfaceArea());
+
+        AirComponents components = grid.airComponents();
+        System.out.println("exterior = " + components.exteriorSurfaceArea());
+        System.out.println("pockets = " + components.pockets().size());
+        System.out.println("pocket volume = " + components.pockets().stream().mapToLong(AirPocket::volume).sum());
+    }
+
+    private record AirPocket(int label, long volume, long surfaceArea) {
+    }
+
+    private record AirComponents(long exteriorSurfaceArea, List<AirPocket> pockets) {
     }
 
-    private static int nonTouchingSurfaces(List<Coordinate> coordinates) {
-        Set<Coordinate> coordSet = new HashSet<>(coordinates);
-        int surface = 0;
-        for (Coordinate c : coordSet) {
-            for (Coordinate neighbour : c.neighbours()) {
-                if (!coordSet.contains(neighbour)) {
-                    surface++;
+    /**
+     * Dense bitset over the bounding box of the droplet, padded with one layer of air on every side. Voxel (x, y, z)
+     * is bit x + width * (y + height * z), so a neighbour along an axis is a fixed bit distance away. The padding
+     * guarantees that bits which are adjacent in the bitset but not in space are both air.
+     */
+    private static class VoxelGrid {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int width;
+        private final int height;
+        private final int depth;
+        private final int size;
+        private final long[] cubes;
+
+        public VoxelGrid(List<Coordinate> coordinates) {
+            minX = coordinates.stream().mapToInt(Coordinate::x).min().orElse(0) - 1;
+            minY = coordinates.stream().mapToInt(Coordinate::y).min().orElse(0) - 1;
+            minZ = coordinates.stream().mapToInt(Coordinate::z).min().orElse(0) - 1;
+            width = coordinates.stream().mapToInt(Coordinate::x).max().orElse(0) + 2 - minX;
+            height = coordinates.stream().mapToInt(Coordinate::y).max().orElse(0) + 2 - minY;
+            depth = coordinates.stream().mapToInt(Coordinate::z).max().orElse(0) + 2 - minZ;
+
+            long voxels = (long) width * height * depth;
+            if (voxels > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Bounding box too large: " + voxels + " voxels");
+            }
+            size = (int) voxels;
+
+            cubes = new long[(size + 63) >>> 6];
+            for (Coordinate c : coordinates) {
+                int index = (c.x() - minX) + width * ((c.y() - minY) + height * (c.z() - minZ));
+                cubes[index >>> 6] |= 1L << index;
+            }
+        }
+
+        /**
+         * Every face between a cube and air is a place where the bitset changes value along one of the axes.
+         */
+        public long surfaceArea() {
+            return surfaceArea(cubes);
+        }
+
+        /**
+         * Surface area of everything that is not reachable from the outside, i.e. the droplet with its air pockets
+         * filled in.
+         */
+        public long exteriorSurfaceArea() {
+            long[] exterior = exterior();
+            long[] solid = new long[exterior.length];
+            for (int i = 0; i < solid.length; i++) {
+                solid[i] = ~exterior[i];
+            }
+            if ((size & 63) != 0) {
+                solid[solid.length - 1] &= (1L << size) - 1;
+            }
+            return surfaceArea(solid);
+        }
+
+        private long surfaceArea(long[] bits) {
+            return transitions(bits, 1) + transitions(bits, width) + transitions(bits, (long) width * height);
+        }
+
+        private static long transitions(long[] bits, long shift) {
+            long count = 0;
+            for (int w = 0; w < bits.length; w++) {
+                count += Long.bitCount(bits[w] ^ bitsAt(bits, ((long) w << 6) + shift));
+            }
+            return count;
+        }
+
+        /**
+         * The 64 bits starting at bit index start, with bits past the end reading as zero.
+         */
+        private static long bitsAt(long[] bits, long start) {
+            int word = (int) (start >>> 6);
+            int offset = (int) (start & 63);
+            long low = word < bits.length ? bits[word] >>> offset : 0;
+            if (offset != 0 && word + 1 < bits.length) {
+                low |= bits[word + 1] << (64 - offset);
+            }
+            return low;
+        }
+
+        private boolean isCube(int index) {
+            return (cubes[index >>> 6] & (1L << index)) != 0;
+        }
+
+        /**
+         * Labels the connected air regions with a union-find over voxel indices. The volume is cut into z-slabs that
+         * are labelled in parallel, after which the slabs are joined along their boundary planes. The component
+         * containing the padding is the exterior; every other component is an air pocket inside the droplet.
+         */
+        public AirComponents airComponents() {
+            int planeSize = width * height;
+            int[] parent = new int[size];
+            for (int i = 0; i < size; i++) {
+                parent[i] = i;
+            }
+
+            int slabDepth = Math.max(1, depth / (4 * ForkJoinPool.getCommonPoolParallelism()));
+            int slabCount = (depth + slabDepth - 1) / slabDepth;
+
+            // Unions within a slab only touch indices of that slab, so slabs can be labelled independently
+            IntStream.range(0, slabCount).parallel().forEach(slab -> {
+                int fromZ = slab * slabDepth;
+                int toZ = Math.min(depth, fromZ + slabDepth);
+                for (int z = fromZ; z < toZ; z++) {
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0; x < width; x++) {
+                            int index = x + width * y + planeSize * z;
+                            if (isCube(index)) {
+                                continue;
+                            }
+                            if (x + 1 < width && !isCube(index + 1)) {
+                                union(parent, index, index + 1);
+                            }
+                            if (y + 1 < height && !isCube(index + width)) {
+                                union(parent, index, index + width);
+                            }
+                            if (z + 1 < toZ && !isCube(index + planeSize)) {
+                                union(parent, index, index + planeSize);
+                            }
+                        }
+                    }
+                }
+            });
+
+            for (int slab = 1; slab < slabCount; slab++) {
+                int below = (slab * slabDepth - 1) * planeSize;
+                for (int i = 0; i < planeSize; i++) {
+                    if (!isCube(below + i) && !isCube(below + planeSize + i)) {
+                        union(parent, below + i, below + planeSize + i);
+                    }
+                }
+            }
+
+            // Roots are numbered densely in index order and store their number as -1 - id in place of themselves
+            int[] labels = new int[16];
+            int componentCount = 0;
+            for (int index = 0; index < size; index++) {
+                if (parent[index] == index && !isCube(index)) {
+                    if (componentCount == labels.length) {
+                        labels = Arrays.copyOf(labels, componentCount * 2);
+                    }
+                    labels[componentCount] = index;
+                    parent[index] = -1 - componentCount;
+                    componentCount++;
+                }
+            }
+
+            // Volume and cube faces per component, counted per slab and then summed
+            int components = componentCount;
+            long[] statistics = IntStream.range(0, slabCount).parallel().mapToObj(slab -> {
+                long[] slabStatistics = new long[2 * components];
+                int from = slab * slabDepth * planeSize;
+                int to = Math.min(depth, (slab + 1) * slabDepth) * planeSize;
+                for (int index = from; index < to; index++) {
+                    if (isCube(index)) {
+                        continue;
+                    }
+                    int id = componentId(parent, index);
+                    slabStatistics[2 * id]++;
+                    slabStatistics[2 * id + 1] += cubeFaces(index);
+                }
+                return slabStatistics;
+            }).reduce((left, right) -> {
+                // Every slab array is freshly allocated, so partial sums can accumulate in place
+                for (int i = 0; i < left.length; i++) {
+                    left[i] += right[i];
+                }
+                return left;
+            }).orElseThrow();
+
+            int exterior = componentId(parent, 0);
+            List<AirPocket> pockets = new ArrayList<>();
+            for (int id = 0; id < components; id++) {
+                if (id != exterior) {
+                    pockets.add(new AirPocket(labels[id], statistics[2 * id], statistics[2 * id + 1]));
                 }
             }
+            return new AirComponents(statistics[2 * exterior + 1], pockets);
         }
-        return surface;
-    }
 
-    private static int exposedSurfaces(List<Coordinate> coordinates) {
-        int minX = coordinates.stream().mapToInt(Coordinate::x).min().orElse(0) - 1;
-        int maxX = coordinates.stream().mapToInt(Coordinate::x).max().orElse(0) + 1;
-        int minY = coordinates.stream().mapToInt(Coordinate::y).min().orElse(0) - 1;
-        int maxY = coordinates.stream().mapToInt(Coordinate::y).max().orElse(0) + 1;
-        int minZ = coordinates.stream().mapToInt(Coordinate::z).min().orElse(0) - 1;
-        int maxZ = coordinates.stream().mapToInt(Coordinate::z).max().orElse(0) + 1;
-
-        Set<Coordinate> coords = new HashSet<>(coordinates);
-        Set<Coordinate> water = new HashSet<>();
-        Queue<Coordinate> queue = new LinkedList<>();
-        Coordinate seed = new Coordinate(minX, minY, minZ);
-        queue.add(seed);
-        water.add(seed);
-
-        while (!queue.isEmpty()) {
-            Coordinate c = queue.remove();
-            for (Coordinate neighbour : c.neighbours()) {
-                if (neighbour.x() < minX || neighbour.x() > maxX
-                        || neighbour.y() < minY || neighbour.y() > maxY
-                        || neighbour.z() < minZ || neighbour.z() > maxZ) {
-                    continue;
+        private int cubeFaces(int index) {
+            int planeSize = width * height;
+            int x = index % width;
+            int y = (index / width) % height;
+            int z = index / planeSize;
+
+            int faces = 0;
+            if (x > 0 && isCube(index - 1)) {
+                faces++;
+            }
+            if (x < width - 1 && isCube(index + 1)) {
+                faces++;
+            }
+            if (y > 0 && isCube(index - width)) {
+                faces++;
+            }
+            if (y < height - 1 && isCube(index + width)) {
+                faces++;
+            }
+            if (z > 0 && isCube(index - planeSize)) {
+                faces++;
+            }
+            if (z < depth - 1 && isCube(index + planeSize)) {
+                faces++;
+            }
+            return faces;
+        }
+
+        private static int find(int[] parent, int index) {
+            while (parent[index] != index) {
+                parent[index] = parent[parent[index]];
+                index = parent[index];
+            }
+            return index;
+        }
+
+        /**
+         * Dense id of the component containing an air voxel once the roots hold their ids. Compresses like find; the
+         * writes only ever shorten a path, so concurrent callers stay safe.
+         */
+        private static int componentId(int[] parent, int index) {
+            while (parent[index] >= 0) {
+                int next = parent[index];
+                if (parent[next] >= 0) {
+                    parent[index] = parent[next];
                 }
-                if (!coords.contains(neighbour) && !water.contains(neighbour)) {
-                    water.add(neighbour);
-                    queue.add(neighbour);
+                index = next;
+            }
+            return -1 - parent[index];
+        }
+
+        private static void union(int[] parent, int a, int b) {
+            int rootA = find(parent, a);
+            int rootB = find(parent, b);
+            // Linking to the smaller index keeps labels deterministic
+            if (rootA < rootB) {
+                parent[rootB] = rootA;
+            } else if (rootB < rootA) {
+                parent[rootA] = rootB;
+            }
+        }
+
+        private long[] exterior() {
+            long[] water = new long[cubes.length];
+            int planeSize = width * height;
+
+            IntQueue queue = new IntQueue(1024);
+            water[0] = 1L;
+            queue.add(0);
+
+            while (!queue.isEmpty()) {
+                int index = queue.remove();
+                int x = index % width;
+                int y = (index / width) % height;
+                int z = index / planeSize;
+
+                if (x > 0) {
+                    flood(index - 1, water, queue);
+                }
+                if (x < width - 1) {
+                    flood(index + 1, water, queue);
+                }
+                if (y > 0) {
+                    flood(index - width, water, queue);
                 }
+                if (y < height - 1) {
+                    flood(index + width, water, queue);
+                }
+                if (z > 0) {
+                    flood(index - planeSize, water, queue);
+                }
+                if (z < depth - 1) {
+                    flood(index + planeSize, water, queue);
+                }
+            }
+
+            return water;
+        }
+
+        private void flood(int index, long[] water, IntQueue queue) {
+            long bit = 1L << index;
+            if (((cubes[index >>> 6] | water[index >>> 6]) & bit) == 0) {
+                water[index >>> 6] |= bit;
+                queue.add(index);
             }
         }
+    }
+
+    private static class IntQueue {
+        private int[] elements;
+        private int head = 0;
+        private int size = 0;
+
+        public IntQueue(int capacity) {
+            elements = new int[capacity];
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
 
-        int surface = 0;
-        for (Coordinate c : coords) {
-            for (Coordinate neighbour : c.neighbours()) {
-                if (water.contains(neighbour)) {
-                    surface++;
+        public void add(int value) {
+            if (size == elements.length) {
+                int[] grown = new int[elements.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = elements[(head + i) % elements.length];
                 }
+                elements = grown;
+                head = 0;
             }
+            elements[(head + size) % elements.length] = value;
+            size++;
+        }
+
+        public int remove() {
+            int value = elements[head];
+            head = (head + 1) % elements.length;
+            size--;
+            return value;
         }
-        return surface;
     }
 
     private static Coordinate parse(String s) {
@@ -39,21 +39,64 @@ public class Day19 {
         GEODE
     }
 
+    private static final Robot[] ROBOTS_BY_VALUE = {Robot.GEODE, Robot.OBSIDIAN, Robot.CLAY, Robot.ORE};
+
     private record Inventory(int time, int ore, int clay, int obsidian, int geode, int oreRobots, int clayRobots,
                              int obsidianRobots, int geodeRobots) {
         public Inventory() {
             this(0, 0, 0, 0, 0, 1, 0, 0, 0);
         }
 
-        public boolean canBuild(Blueprint bp, Robot robot) {
+        /**
+         * Number of minutes to wait until robot can be built, or -1 if it never can with the current robots.
+         */
+        public int minutesUntilAffordable(Blueprint bp, Robot robot) {
+            return switch (robot) {
+                case ORE -> minutesUntil(bp.oreRobotOre(), ore, oreRobots);
+                case CLAY -> minutesUntil(bp.clayRobotOre(), ore, oreRobots);
+                case OBSIDIAN -> latest(minutesUntil(bp.obsidianRobotOre(), ore, oreRobots), minutesUntil(bp.obsidianRobotClay(), clay, clayRobots));
+                case GEODE -> latest(minutesUntil(bp.geodeRobotOre(), ore, oreRobots), minutesUntil(bp.geodeRobotObsidian(), obsidian, obsidianRobots));
+            };
+        }
+
+        private static int minutesUntil(int cost, int stock, int robots) {
+            if (stock >= cost) {
+                return 0;
+            }
+            if (robots == 0) {
+                return -1;
+            }
+            return (cost - stock + robots - 1) / robots;
+        }
+
+        private static int latest(int minutes1, int minutes2) {
+            return minutes1 < 0 || minutes2 < 0 ? -1 : Math.max(minutes1, minutes2);
+        }
+
+        /**
+         * Another robot of this kind only helps while the robots cannot yet produce, over the remaining time, the
+         * resource that the most expensive recipe could consume each minute.
+         */
+        public boolean isUseful(Blueprint bp, Robot robot, int remaining) {
             return switch (robot) {
-                case ORE -> ore >= bp.oreRobotOre();
-                case CLAY -> ore >= bp.clayRobotOre();
-                case OBSIDIAN -> clay >= bp.obsidianRobotClay() && ore >= bp.obsidianRobotOre();
-                case GEODE -> obsidian >= bp.geodeRobotObsidian() && ore >= bp.geodeRobotOre();
+                case ORE -> oreRobots * remaining + ore < bp.oreDemand() * remaining;
+                case CLAY -> clayRobots * remaining + clay < bp.clayDemand() * remaining;
+                case OBSIDIAN -> obsidianRobots * remaining + obsidian < bp.obsidianDemand() * remaining;
+                case GEODE -> true;
             };
         }
 
+        public Inventory advance(int minutes) {
+            return new Inventory(
+                    time + minutes,
+                    ore + oreRobots * minutes,
+                    clay + clayRobots * minutes,
+                    obsidian + obsidianRobots * minutes,
+                    geode + geodeRobots * minutes,
+                    oreRobots, clayRobots, obsidianRobots, geodeRobots
+            );
+        }
+
         public Inventory simulate(Blueprint bp, Robot building) {
             int ore = ore();
             int clay = clay();
@@ -158,43 +201,39 @@ public class Day19 {
     }
 
     private static int calculateMaxGeodeCount(Blueprint bp, int runtime) {
-        return calculateMaxGeodeCount(bp, new Inventory(), runtime);
+        int[] best = {0};
+        calculateMaxGeodeCount(bp, new Inventory(), runtime, best);
+        return best[0];
     }
 
-    private static int calculateMaxGeodeCount(Blueprint bp, Inventory i, int runtime) {
-        if (i.time() == runtime) {
-            return i.geode();
+    /**
+     * Branches on which robot to build next instead of on every minute, jumping ahead to the minute the robot becomes
+     * affordable. Not building anything else is covered by letting the current robots collect until the end.
+     */
+    private static void calculateMaxGeodeCount(Blueprint bp, Inventory i, int runtime, int[] best) {
+        int remaining = runtime - i.time();
+        int geodes = i.geode() + i.geodeRobots() * remaining;
+        if (geodes > best[0]) {
+            best[0] = geodes;
         }
 
-        if (i.canBuild(bp, Robot.GEODE)) {
-            return calculateMaxGeodeCount(bp, i.simulate(bp, Robot.GEODE), runtime);
-        } else if (i.canBuild(bp, Robot.OBSIDIAN) && i.obsidianRobots < bp.obsidianDemand) {
-            return calculateMaxGeodeCount(bp, i.simulate(bp, Robot.OBSIDIAN), runtime);
+        // Even building a geode robot every remaining minute cannot beat the best so far
+        if (geodes + remaining * (remaining - 1) / 2 <= best[0]) {
+            return;
         }
 
-        int best = 0;
-
-
-
-        if (i.canBuild(bp, Robot.CLAY) && i.clayRobots < bp.clayDemand) {
-            int score = calculateMaxGeodeCount(bp, i.simulate(bp, Robot.CLAY), runtime);
-            if (score > best) {
-                best = score;
+        for (Robot robot : ROBOTS_BY_VALUE) {
+            if (!i.isUseful(bp, robot, remaining)) {
+                continue;
             }
-        }
 
-        if (i.canBuild(bp, Robot.ORE) && i.oreRobots < bp.oreDemand) {
-            int score = calculateMaxGeodeCount(bp, i.simulate(bp, Robot.ORE), runtime);
-            if (score > best) {
-                best = score;
+            int wait = i.minutesUntilAffordable(bp, robot);
+            // The robot has to be ready with at least one minute left to collect anything
+            if (wait < 0 || wait + 1 >= remaining) {
+                continue;
             }
-        }
 
-        int score = calculateMaxGeodeCount(bp, i.simulate(bp, null), runtime);
-        if (score > best) {
-            best = score;
+            calculateMaxGeodeCount(bp, i.advance(wait).simulate(bp, robot), runtime, best);
         }
-
-        return best;
     }
 }
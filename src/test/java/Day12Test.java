@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class Day12Test {
+    @Test
+    public void testFindExample() {
+        Day12.Grid grid = new Day12.Grid(8, 5, 0);
+        String[] lines = {
+                "Sabqponm",
+                "abcryxxl",
+                "accszExk",
+                "acctuvwj",
+                "abdefghi"
+        };
+        for (int y = 0; y < lines.length; y++) {
+            for (int x = 0; x < lines[y].length(); x++) {
+                char c = lines[y].charAt(x);
+                grid.set(new Day12.Position(x, y), c == 'S' ? 0 : c == 'E' ? 25 : c - 'a');
+            }
+        }
+
+        assertEquals(31, Day12.find(grid, new Day12.Position(0, 0), new Day12.Position(5, 2)));
+    }
+
+    @Test
+    public void testFindMatchesForwardDistances() {
+        Random random = new Random(12);
+        for (int i = 0; i < 300; i++) {
+            int width = 1 + random.nextInt(30);
+            int height = 1 + random.nextInt(30);
+            Day12.Grid grid = randomGrid(random, width, height);
+            Day12.Position start = new Day12.Position(random.nextInt(width), random.nextInt(height));
+            Day12.Position end = new Day12.Position(random.nextInt(width), random.nextInt(height));
+
+            int expected = Day12.distances(grid, start, false).get(end);
+            assertEquals(expected == Integer.MAX_VALUE ? -1 : expected, Day12.find(grid, start, end));
+        }
+    }
+
+    @Test
+    public void testParallelDistancesMatchDistances() {
+        Random random = new Random(29);
+        for (int i = 0; i < 50; i++) {
+            int width = 1 + random.nextInt(200);
+            int height = 1 + random.nextInt(200);
+            Day12.Grid grid = randomGrid(random, width, height);
+            Day12.Position source = new Day12.Position(random.nextInt(width), random.nextInt(height));
+            boolean reverse = random.nextBoolean();
+
+            Day12.Grid expected = Day12.distances(grid, source, reverse);
+            Day12.Grid actual = Day12.parallelDistances(grid, source, reverse);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    assertEquals(expected.get(x, y), actual.get(x, y));
+                }
+            }
+        }
+    }
+
+    private static Day12.Grid randomGrid(Random random, int width, int height) {
+        Day12.Grid grid = new Day12.Grid(width, height, 0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                grid.set(new Day12.Position(x, y), random.nextInt(4));
+            }
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class Day13Test {
+    private static final String[] EXAMPLE = {
+            "[1,1,3,1,1]", "[1,1,5,1,1]",
+            "[[1],[2,3,4]]", "[[1],4]",
+            "[9]", "[[8,7,6]]",
+            "[[4,4],4,4]", "[[4,4],4,4,4]",
+            "[7,7,7,7]", "[7,7,7]",
+            "[]", "[3]",
+            "[[[]]]", "[[]]",
+            "[1,[2,[3,[4,[5,6,7]]]],8,9]", "[1,[2,[3,[4,[5,6,0]]]],8,9]"
+    };
+
+    @Test
+    public void testCompareRawExample() {
+        int[] expected = {-1, -1, 1, -1, 1, -1, 1, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], Integer.signum(Day13.compareRaw(bytes(EXAMPLE[2 * i]), bytes(EXAMPLE[2 * i + 1]))));
+        }
+    }
+
+    @Test
+    public void testDecoderKeyExample() {
+        List<byte[]> packets = Arrays.stream(EXAMPLE).map(Day13Test::bytes).toList();
+        assertEquals(140L, Day13.decoderKey(packets));
+    }
+
+    @Test
+    public void testPacketCompareMatchesCompareRaw() {
+        Random random = new Random(13);
+        for (int i = 0; i < 20000; i++) {
+            byte[] p1 = bytes(randomList(random, 0));
+            byte[] p2 = random.nextInt(4) == 0 ? p1.clone() : bytes(randomList(random, 0));
+            assertEquals(
+                    Integer.signum(Day13.compareRaw(p1, p2)),
+                    Integer.signum(Day13.Packet.compare(Day13.Packet.encode(p1), Day13.Packet.encode(p2)))
+            );
+        }
+    }
+
+    @Test
+    public void testSortMatchesDecoderKey() {
+        Random random = new Random(32);
+        List<byte[]> packets = new ArrayList<>();
+        while (packets.size() < 500) {
+            byte[] packet = bytes(randomList(random, 0));
+            // Packets equal to a divider would make the divider positions ambiguous
+            if (Day13.compareRaw(packet, bytes("[[2]]")) != 0 && Day13.compareRaw(packet, bytes("[[6]]")) != 0) {
+                packets.add(packet);
+            }
+        }
+
+        List<byte[]> withDividers = new ArrayList<>(packets);
+        withDividers.add(bytes("[[2]]"));
+        withDividers.add(bytes("[[6]]"));
+        Day13.Packet[] sorted = Day13.sort(withDividers);
+
+        Day13.Packet divider1 = Day13.Packet.encode(bytes("[[2]]"));
+        Day13.Packet divider2 = Day13.Packet.encode(bytes("[[6]]"));
+        long key = 1;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0) {
+                assertTrue(Day13.Packet.compare(sorted[i - 1], sorted[i]) <= 0);
+            }
+            if (Day13.Packet.compare(sorted[i], divider1) == 0 || Day13.Packet.compare(sorted[i], divider2) == 0) {
+                key *= i + 1;
+            }
+        }
+        assertEquals(Day13.decoderKey(packets), key);
+    }
+
+    private static String randomList(Random random, int depth) {
+        StringBuilder builder = new StringBuilder("[");
+        int size = depth > 3 ? 0 : random.nextInt(4);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            if (random.nextInt(3) == 0) {
+                builder.append(randomList(random, depth + 1));
+            } else {
+                builder.append(random.nextInt(11));
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    private static byte[] bytes(String packet) {
+        return packet.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class Day15Test {
+    @Test
+    public void testFindDistressBeaconExample() {
+        List<Day15.Entry> entries = Stream.of(
+                "Sensor at x=2, y=18: closest beacon is at x=-2, y=15",
+                "Sensor at x=9, y=16: closest beacon is at x=10, y=16",
+                "Sensor at x=13, y=2: closest beacon is at x=15, y=3",
+                "Sensor at x=12, y=14: closest beacon is at x=10, y=16",
+                "Sensor at x=10, y=20: closest beacon is at x=10, y=16",
+                "Sensor at x=14, y=17: closest beacon is at x=10, y=16",
+                "Sensor at x=8, y=7: closest beacon is at x=2, y=10",
+                "Sensor at x=2, y=0: closest beacon is at x=2, y=10",
+                "Sensor at x=0, y=11: closest beacon is at x=2, y=10",
+                "Sensor at x=20, y=14: closest beacon is at x=25, y=17",
+                "Sensor at x=17, y=20: closest beacon is at x=21, y=22",
+                "Sensor at x=16, y=7: closest beacon is at x=15, y=3",
+                "Sensor at x=14, y=3: closest beacon is at x=15, y=3",
+                "Sensor at x=20, y=1: closest beacon is at x=15, y=3"
+        ).map(Day15::parse).toList();
+
+        assertEquals(new Day15.Point(14, 11), Day15.findDistressBeacon(entries, 20));
+    }
+
+    @Test
+    public void testFindDistressBeaconOnEdge() {
+        List<Day15.Entry> entries = Stream.of(
+                "Sensor at x=-3, y=8: closest beacon is at x=2, y=8",
+                "Sensor at x=3, y=2: closest beacon is at x=8, y=2",
+                "Sensor at x=11, y=8: closest beacon is at x=-1, y=8"
+        ).map(Day15::parse).toList();
+
+        assertEquals(new Day15.Point(0, 5), Day15.findDistressBeacon(entries, 10));
+    }
+
+    @Test
+    public void testFindDistressBeaconMatchesScan() {
+        Random random = new Random(15);
+        int size = 12;
+        int checked = 0;
+        while (checked < 200) {
+            // Sensors that just miss a chosen position leave few other positions uncovered
+            int targetX = random.nextInt(size + 1);
+            int targetY = random.nextInt(size + 1);
+            List<Day15.Entry> entries = new ArrayList<>();
+            for (int i = 0, count = 2 + random.nextInt(6); i < count; i++) {
+                int x = random.nextInt(size + 11) - 5;
+                int y = random.nextInt(size + 11) - 5;
+                int radius = Math.abs(x - targetX) + Math.abs(y - targetY) - 1 - random.nextInt(2);
+                if (radius >= 0) {
+                    entries.add(Day15.parse("Sensor at x=" + x + ", y=" + y + ": closest beacon is at x=" + (x + radius) + ", y=" + y));
+                }
+            }
+
+            List<Day15.Point> uncovered = new ArrayList<>();
+            for (int y = 0; y <= size; y++) {
+                for (int x = 0; x <= size; x++) {
+                    int px = x;
+                    int py = y;
+                    if (entries.stream().noneMatch(e -> e.withinSensorReach(px, py))) {
+                        uncovered.add(new Day15.Point(x, y));
+                    }
+                }
+            }
+
+            if (uncovered.size() == 1) {
+                assertEquals(uncovered.get(0), Day15.findDistressBeacon(entries, size));
+                checked++;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class Day16Test {
+    private static final List<String> EXAMPLE = List.of(
+            "Valve AA has flow rate=0; tunnels lead to valves DD, II, BB",
+            "Valve BB has flow rate=13; tunnels lead to valves CC, AA",
+            "Valve CC has flow rate=2; tunnels lead to valves DD, BB",
+            "Valve DD has flow rate=20; tunnels lead to valves CC, AA, EE",
+            "Valve EE has flow rate=3; tunnels lead to valves FF, DD",
+            "Valve FF has flow rate=0; tunnels lead to valves EE, GG",
+            "Valve GG has flow rate=0; tunnels lead to valves FF, HH",
+            "Valve HH has flow rate=22; tunnel leads to valve GG",
+            "Valve II has flow rate=0; tunnels lead to valves AA, JJ",
+            "Valve JJ has flow rate=21; tunnel leads to valve II"
+    );
+
+    @Test
+    public void testExample() {
+        Day16.ValveNetwork network = Day16.parseInput(EXAMPLE, "AA");
+
+        assertEquals(1651, Day16.maxScore(network, 30));
+        assertEquals(1651, Arrays.stream(network.bestScoreByOpenedValves(30)).max().orElse(0));
+
+        assertEquals(1707, Day16.maxScoreAlt(network, 26));
+        assertEquals(1707, Day16.ValveNetwork.bestScoreForAgents(network.bestScoreByOpenedValves(26), 2));
+    }
+
+    @Test
+    public void testSearchMatchesTables() {
+        Random random = new Random(16);
+        for (int i = 0; i < 100; i++) {
+            int size = 2 + random.nextInt(12);
+            int[] rates = new int[size];
+            int[][] adjacency = new int[size][];
+            for (int v = 0; v < size; v++) {
+                rates[v] = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(25);
+                // Tunnels are one way here; the search only relies on the distances
+                adjacency[v] = random.ints(1 + random.nextInt(3), 0, size).toArray();
+            }
+            Day16.ValveNetwork network = Day16.ValveNetwork.of(rates, adjacency, random.nextInt(size));
+
+            assertEquals(
+                    Arrays.stream(network.bestScoreByOpenedValves(30)).max().orElse(0),
+                    Day16.maxScore(network, 30)
+            );
+            assertEquals(
+                    Day16.ValveNetwork.bestScoreForAgents(network.bestScoreByOpenedValves(26), 2),
+                    Day16.maxScoreAlt(network, 26)
+            );
+        }
+    }
+
+    @Test
+    public void testTooManyValvesForStateTables() {
+        int size = 28;
+        int[] rates = new int[size];
+        int[][] adjacency = new int[size][];
+        for (int v = 0; v < size; v++) {
+            rates[v] = v == 0 ? 0 : v;
+            adjacency[v] = new int[]{(v + 1) % size};
+        }
+        Day16.ValveNetwork network = Day16.ValveNetwork.of(rates, adjacency, 0);
+
+        assertFalse(network.fitsStateTables());
+        assertThrows(IllegalStateException.class, () -> network.bestScoreByOpenedValves(30));
+    }
+}